@@ -0,0 +1,27 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Source code the benchmarks run on. A name is either one of the programs in src/test/testClasses, or "generated-N"
+ * for a {@link SyntheticProgram} of the default shape with N methods.
+ */
+public final class BenchmarkInputs {
+
+    private static final Path TEST_CLASSES = Paths.get("src", "test", "testClasses");
+    private static final String GENERATED = "generated-";
+
+    private BenchmarkInputs() {
+    }
+
+    public static String load(String name) throws IOException {
+        if (name.startsWith(GENERATED)) {
+            return SyntheticProgram.generate(
+                    SyntheticProgram.Shape.DEFAULT.withMethods(Integer.parseInt(name.substring(GENERATED.length()))));
+        }
+        return Files.readString(TEST_CLASSES.resolve(name + ".java"));
+    }
+}
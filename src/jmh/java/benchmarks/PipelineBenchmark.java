@@ -0,0 +1,119 @@
+package benchmarks;
+
+import com.github.javaparser.JavaParser;
+import com.github.javaparser.ParseResult;
+import com.github.javaparser.ParserConfiguration;
+import com.github.javaparser.ast.CompilationUnit;
+import com.github.javaparser.ast.body.MethodDeclaration;
+import com.github.javaparser.ast.body.TypeDeclaration;
+import com.github.javaparser.symbolsolver.JavaSymbolSolver;
+import com.github.javaparser.symbolsolver.resolution.typesolvers.ReflectionTypeSolver;
+import graph.ControlFlowGraph;
+import graph.GraphNode;
+import graph.StateWrapper;
+import guru.nidi.graphviz.model.MutableGraph;
+import guru.nidi.graphviz.parse.Parser;
+import org.openjdk.jmh.annotations.*;
+import visitor.MethodAnalysisTask;
+import viz.GraphGenerator;
+import viz.GraphRenderer;
+import viz.GraphvizEnginePool;
+import viz.NativeDotRenderer;
+import viz.ProjectGenerator;
+import viz.RendererConfig;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.Stack;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times each stage of the pipeline on its own, with the output of the stages before it prepared up front. Run a
+ * single input with -p input=SwitchTest, or any other name {@link BenchmarkInputs} knows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PipelineBenchmark {
+
+    @Param({"ForLoopTest", "WhileLoopTest", "SwitchTest", "NestedParametrizedIfTest", "MethodCallWithArguments",
+            "RepeatedMethodCallTest", "generated-20", "generated-100"})
+    public String input;
+
+    private String code;
+    private JavaParser parser;
+    private CompilationUnit compilationUnit;
+    private Set<MethodDeclaration> methodDeclarations;
+    private ControlFlowGraph graph;
+    private String dot;
+    private GraphRenderer renderer;
+
+    @Setup
+    public void setUp() throws IOException, InterruptedException {
+        code = BenchmarkInputs.load(input);
+        parser = new JavaParser(new ParserConfiguration()
+                .setSymbolResolver(new JavaSymbolSolver(new ReflectionTypeSolver())));
+
+        compilationUnit = parse();
+        methodDeclarations = new HashSet<>();
+        for (TypeDeclaration<?> type : compilationUnit.getTypes()) {
+            methodDeclarations.addAll(type.getMethods());
+        }
+        graph = new ProjectGenerator(code, parser).getGraph();
+        dot = new GraphGenerator().generateFullGraph(graph);
+
+        // Same choice as the server: native dot if it is installed, otherwise graphviz-java. An engine that fails to
+        // warm up still renders, so do not wait for it forever
+        renderer = new RendererConfig().graphRenderer("", 1, 1, 10000, 30000);
+        for (int i = 0; i < 3000 && !renderer.isReady(); i++) {
+            Thread.sleep(10);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (renderer instanceof NativeDotRenderer nativeDot) {
+            nativeDot.shutdown();
+        } else if (renderer instanceof GraphvizEnginePool pool) {
+            pool.shutdown();
+        }
+    }
+
+    private CompilationUnit parse() {
+        ParseResult<CompilationUnit> result = parser.parse(code);
+        return result.getResult().orElseThrow(() -> new IllegalStateException(result.getProblems().toString()));
+    }
+
+    @Benchmark
+    public CompilationUnit parseWithSymbolSolver() {
+        return parse();
+    }
+
+    @Benchmark
+    public List<GraphNode> analyze() {
+        List<GraphNode> nodes = new ArrayList<>();
+        MethodAnalysisTask.analyzeAll(compilationUnit, methodDeclarations, new StateWrapper(nodes, new Stack<>()));
+        return nodes;
+    }
+
+    @Benchmark
+    public String generateFullGraph() {
+        return new GraphGenerator().generateFullGraph(graph);
+    }
+
+    @Benchmark
+    public MutableGraph parseDot() throws IOException {
+        return new Parser().read(dot);
+    }
+
+    @Benchmark
+    public byte[] renderSvg() throws IOException {
+        return renderer.renderSvg(graph);
+    }
+}
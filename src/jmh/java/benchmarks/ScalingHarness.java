@@ -0,0 +1,203 @@
+package benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.github.javaparser.JavaParser;
+import com.github.javaparser.ParseResult;
+import com.github.javaparser.ParserConfiguration;
+import com.github.javaparser.ast.CompilationUnit;
+import com.github.javaparser.ast.body.MethodDeclaration;
+import com.github.javaparser.ast.body.TypeDeclaration;
+import com.github.javaparser.symbolsolver.JavaSymbolSolver;
+import com.github.javaparser.symbolsolver.resolution.typesolvers.ReflectionTypeSolver;
+import graph.BasicBlocks;
+import graph.ControlFlowGraph;
+import graph.GraphNode;
+import graph.StateWrapper;
+import visitor.MethodVisitor;
+import viz.GraphGenerator;
+import viz.GraphJsonWriter;
+
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.Callable;
+
+/**
+ * Runs every stage of the pipeline on synthetic programs of growing size and reports how time and allocation grow with
+ * the number of methods. A stage whose time grows faster than n log n is flagged on the console and in the JSON
+ * written to the output file.
+ * <p>
+ * Arguments are key=value pairs: sizes (comma-separated method counts), runs, output, and any component of
+ * {@link SyntheticProgram.Shape} other than methods, e.g. {@code sizes=50,100,200 fanOut=3 depth=4}.
+ * <p>
+ * Everything runs on the calling thread, including the analysis, so that allocation can be measured per stage.
+ */
+public final class ScalingHarness {
+
+    private static final String[] STAGES = {"parse", "analyze", "graph", "blocks", "dot", "json"};
+
+    // How far above the n log n slope a stage may grow before it is flagged, to allow for noise
+    private static final double SLOPE_TOLERANCE = 0.15;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private ScalingHarness() {
+    }
+
+    // Result of one stage on one input: the fastest of all runs, and what the last run allocated
+    private record Measurement(long nanos, long bytes) {
+    }
+
+    // Every stage measured on one input
+    private record Sample(String code, int nodes, Map<String, Measurement> stages) {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (equals < 0) {
+                throw new IllegalArgumentException("Expected key=value, got " + arg);
+            }
+            options.put(arg.substring(0, equals), arg.substring(equals + 1));
+        }
+        int[] sizes = Arrays.stream(options.getOrDefault("sizes", "25,50,100,200,400").split(","))
+                .mapToInt(Integer::parseInt).toArray();
+        int runs = Integer.parseInt(options.getOrDefault("runs", "5"));
+        Path output = Paths.get(options.getOrDefault("output", "target/scaling-result.json"));
+        SyntheticProgram.Shape shape = shapeOf(options);
+
+        // Warm up on the smallest size so that the first measurements are not dominated by class loading and the JIT
+        for (int i = 0; i < 3; i++) {
+            measure(shape.withMethods(sizes[0]), 1);
+        }
+
+        List<Map<String, Object>> points = new ArrayList<>();
+        Map<String, double[]> nanosByStage = new LinkedHashMap<>();
+        for (String stage : STAGES) {
+            nanosByStage.put(stage, new double[sizes.length]);
+        }
+        System.out.printf("%8s %8s %8s %10s %12s %14s%n", "methods", "lines", "nodes", "stage", "millis",
+                "allocated KiB");
+        for (int i = 0; i < sizes.length; i++) {
+            Sample sample = measure(shape.withMethods(sizes[i]), runs);
+            long lines = sample.code().lines().count();
+            Map<String, Object> point = new LinkedHashMap<>();
+            point.put("methods", sizes[i]);
+            point.put("lines", lines);
+            point.put("nodes", sample.nodes());
+            Map<String, Object> stageResults = new LinkedHashMap<>();
+            for (String stage : STAGES) {
+                Measurement measurement = sample.stages().get(stage);
+                nanosByStage.get(stage)[i] = measurement.nanos();
+                stageResults.put(stage, Map.of("nanos", measurement.nanos(), "allocatedBytes", measurement.bytes()));
+                System.out.printf("%8d %8d %8d %10s %12.3f %14d%n", sizes[i], lines, sample.nodes(), stage,
+                        measurement.nanos() / 1e6, measurement.bytes() / 1024);
+            }
+            point.put("stages", stageResults);
+            points.add(point);
+        }
+
+        double[] logSizes = Arrays.stream(sizes).mapToDouble(Math::log).toArray();
+        double[] logNLogN = Arrays.stream(sizes).mapToDouble(n -> Math.log(n * Math.log(n))).toArray();
+        double nLogNSlope = slope(logSizes, logNLogN);
+        Map<String, Object> growth = new LinkedHashMap<>();
+        System.out.println();
+        for (String stage : STAGES) {
+            double[] logNanos = Arrays.stream(nanosByStage.get(stage)).map(Math::log).toArray();
+            double stageSlope = slope(logSizes, logNanos);
+            boolean superlinear = stageSlope > nLogNSlope + SLOPE_TOLERANCE;
+            growth.put(stage, Map.of("exponent", stageSlope, "worseThanNLogN", superlinear));
+            System.out.printf("%s%-8s grows like n^%.2f%s%n", superlinear ? "!! " : "   ", stage, stageSlope,
+                    superlinear ? String.format(" - worse than n log n (n^%.2f over these sizes)", nLogNSlope) : "");
+        }
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("shape", shape);
+        report.put("runs", runs);
+        report.put("nLogNExponent", nLogNSlope);
+        report.put("points", points);
+        report.put("growth", growth);
+        if (output.getParent() != null) {
+            Files.createDirectories(output.getParent());
+        }
+        new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(output.toFile(), report);
+        System.out.println("\nWrote " + output.toAbsolutePath());
+    }
+
+    private static SyntheticProgram.Shape shapeOf(Map<String, String> options) {
+        SyntheticProgram.Shape d = SyntheticProgram.Shape.DEFAULT;
+        return new SyntheticProgram.Shape(d.methods(),
+                Integer.parseInt(options.getOrDefault("statements", String.valueOf(d.statements()))),
+                Integer.parseInt(options.getOrDefault("depth", String.valueOf(d.depth()))),
+                Double.parseDouble(options.getOrDefault("branchDensity", String.valueOf(d.branchDensity()))),
+                Integer.parseInt(options.getOrDefault("loops", String.valueOf(d.loops()))),
+                Integer.parseInt(options.getOrDefault("switchWidth", String.valueOf(d.switchWidth()))),
+                Integer.parseInt(options.getOrDefault("fanOut", String.valueOf(d.fanOut()))),
+                Integer.parseInt(options.getOrDefault("callDepth", String.valueOf(d.callDepth()))),
+                Long.parseLong(options.getOrDefault("seed", String.valueOf(d.seed()))));
+    }
+
+    private static Sample measure(SyntheticProgram.Shape shape, int runs) throws Exception {
+        String code = SyntheticProgram.generate(shape);
+        Map<String, Measurement> best = new HashMap<>();
+        int nodes = 0;
+        for (int run = 0; run < runs; run++) {
+            // A fresh parser each run, so that symbol solver caches do not carry over from the previous run
+            JavaParser parser = new JavaParser(new ParserConfiguration()
+                    .setSymbolResolver(new JavaSymbolSolver(new ReflectionTypeSolver())));
+
+            CompilationUnit cu = time(best, "parse", () -> {
+                ParseResult<CompilationUnit> result = parser.parse(code);
+                return result.getResult().orElseThrow(() -> new IllegalStateException(result.getProblems().toString()));
+            });
+            List<GraphNode> roots = time(best, "analyze", () -> {
+                Set<MethodDeclaration> methodDeclarations = new HashSet<>();
+                for (TypeDeclaration<?> type : cu.getTypes()) {
+                    methodDeclarations.addAll(type.getMethods());
+                }
+                List<GraphNode> analyzed = new ArrayList<>();
+                new MethodVisitor(methodDeclarations).visit(cu, new StateWrapper(analyzed, new Stack<>()));
+                return analyzed;
+            });
+            ControlFlowGraph graph = time(best, "graph", () -> ControlFlowGraph.of(roots));
+            time(best, "blocks", () -> BasicBlocks.coalesce(graph));
+            time(best, "dot", () -> new GraphGenerator().generateFullGraph(graph));
+            time(best, "json", () -> {
+                new GraphJsonWriter().write(graph, OutputStream.nullOutputStream());
+                return null;
+            });
+            nodes = graph.nodeCount();
+        }
+        return new Sample(code, nodes, best);
+    }
+
+    private static <T> T time(Map<String, Measurement> best, String stage, Callable<T> work) throws Exception {
+        long bytesBefore = THREADS.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        T result = work.call();
+        long nanos = System.nanoTime() - start;
+        long bytes = THREADS.getCurrentThreadAllocatedBytes() - bytesBefore;
+        best.merge(stage, new Measurement(nanos, bytes),
+                (previous, current) -> new Measurement(Math.min(previous.nanos(), current.nanos()), current.bytes()));
+        return result;
+    }
+
+    // Least-squares slope of y over x
+    private static double slope(double[] x, double[] y) {
+        double meanX = Arrays.stream(x).average().orElse(0);
+        double meanY = Arrays.stream(y).average().orElse(0);
+        double covariance = 0;
+        double variance = 0;
+        for (int i = 0; i < x.length; i++) {
+            covariance += (x[i] - meanX) * (y[i] - meanY);
+            variance += (x[i] - meanX) * (x[i] - meanX);
+        }
+        return variance == 0 ? 0 : covariance / variance;
+    }
+}
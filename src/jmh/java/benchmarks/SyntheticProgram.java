@@ -0,0 +1,165 @@
+package benchmarks;
+
+import java.util.Random;
+
+/**
+ * Generates valid Java programs of a given shape, for inputs far larger than the hand-written test classes. The same
+ * shape and seed always produce the same program.
+ */
+public final class SyntheticProgram {
+
+    /**
+     * @param methods - number of methods in the class.
+     * @param statements - statements at the top level of each method, not counting loops, switches and calls.
+     * @param depth - how deep ifs and loops may nest.
+     * @param branchDensity - chance of each statement being an if/else, between 0 and 1.
+     * @param loops - for and while loops in each method.
+     * @param switchWidth - cases of the switch in each method, or 0 for no switch.
+     * @param fanOut - calls each method makes to other methods of the class.
+     * @param callDepth - how many methods deep call chains go. Methods are split into this many layers plus one,
+     *                    and each layer only calls the next, so every call is inlined but none is recursive.
+     */
+    public record Shape(int methods, int statements, int depth, double branchDensity, int loops, int switchWidth,
+                        int fanOut, int callDepth, long seed) {
+
+        public static final Shape DEFAULT = new Shape(20, 8, 3, 0.3, 2, 4, 2, 2, 42);
+
+        public Shape withMethods(int methods) {
+            return new Shape(methods, statements, depth, branchDensity, loops, switchWidth, fanOut, callDepth, seed);
+        }
+    }
+
+    private final Shape shape;
+    private final Random random;
+    private final StringBuilder code = new StringBuilder();
+    private int locals;
+
+    private SyntheticProgram(Shape shape) {
+        this.shape = shape;
+        this.random = new Random(shape.seed());
+    }
+
+    public static String generate(Shape shape) {
+        return new SyntheticProgram(shape).generateClass();
+    }
+
+    private String generateClass() {
+        code.append("public class Synthetic {\n");
+        for (int i = 0; i < shape.methods(); i++) {
+            generateMethod(i);
+        }
+        return code.append("}\n").toString();
+    }
+
+    private void generateMethod(int index) {
+        locals = 0;
+        code.append("\n    public int method").append(index).append("(int x) {\n");
+        indent(2).append("int y = x + ").append(index).append(";\n");
+
+        int loopsLeft = shape.loops();
+        for (int i = 0; i < shape.statements(); i++) {
+            generateStatement(2, 0);
+            // Spread the loops over the method rather than putting them all at the end
+            if (loopsLeft > 0 && random.nextInt(shape.statements()) < shape.loops()) {
+                generateLoop(2, 0, loopsLeft-- % 2 == 0);
+            }
+        }
+        while (loopsLeft > 0) {
+            generateLoop(2, 0, loopsLeft-- % 2 == 0);
+        }
+        if (shape.switchWidth() > 0) {
+            generateSwitch(2);
+        }
+        generateCalls(index);
+        indent(2).append("return y;\n");
+        code.append("    }\n");
+    }
+
+    private void generateStatement(int indent, int depth) {
+        if (depth < shape.depth() && random.nextDouble() < shape.branchDensity()) {
+            indent(indent).append("if (").append(condition()).append(") {\n");
+            generateBlock(indent + 1, depth + 1);
+            indent(indent).append("} else {\n");
+            generateBlock(indent + 1, depth + 1);
+            indent(indent).append("}\n");
+        } else if (random.nextInt(3) == 0) {
+            indent(indent).append("int v").append(locals++).append(" = y * ").append(1 + random.nextInt(5))
+                    .append(";\n");
+        } else {
+            indent(indent).append("y = y + ").append(random.nextInt(10)).append(";\n");
+        }
+    }
+
+    private void generateBlock(int indent, int depth) {
+        int statements = 1 + random.nextInt(3);
+        for (int i = 0; i < statements; i++) {
+            generateStatement(indent, depth);
+        }
+    }
+
+    private void generateLoop(int indent, int depth, boolean isFor) {
+        if (isFor) {
+            String counter = "i" + locals++;
+            indent(indent).append("for (int ").append(counter).append(" = 0; ").append(counter).append(" < ")
+                    .append(2 + random.nextInt(5)).append("; ").append(counter).append("++) {\n");
+        } else {
+            indent(indent).append("while (y < ").append(100 + random.nextInt(100)).append(") {\n");
+            indent(indent + 1).append("y = y * 2 + 1;\n");
+        }
+        generateBlock(indent + 1, depth + 1);
+        if (depth + 1 < shape.depth() && random.nextDouble() < shape.branchDensity()) {
+            generateLoop(indent + 1, depth + 1, !isFor);
+        }
+        indent(indent).append("}\n");
+    }
+
+    private void generateSwitch(int indent) {
+        indent(indent).append("switch (x) {\n");
+        for (int i = 0; i < shape.switchWidth(); i++) {
+            indent(indent + 1).append("case ").append(i).append(":\n");
+            indent(indent + 2).append("y = y + ").append(i).append(";\n");
+            indent(indent + 2).append("break;\n");
+        }
+        indent(indent + 1).append("default:\n");
+        indent(indent + 2).append("y = 0;\n");
+        indent(indent).append("}\n");
+    }
+
+    private void generateCalls(int index) {
+        int layers = shape.callDepth() + 1;
+        int layer = index * layers / shape.methods();
+        if (layer + 1 >= layers) {
+            return;
+        }
+        // Methods of the next layer, by the same split as above
+        int first = ceilDiv((layer + 1) * shape.methods(), layers);
+        int end = ceilDiv((layer + 2) * shape.methods(), layers);
+        if (first >= end) {
+            return;
+        }
+        for (int i = 0; i < shape.fanOut(); i++) {
+            int callee = first + random.nextInt(end - first);
+            indent(2).append("y = method").append(callee).append("(y + ").append(i).append(");\n");
+        }
+    }
+
+    private static int ceilDiv(int dividend, int divisor) {
+        return (dividend + divisor - 1) / divisor;
+    }
+
+    private String condition() {
+        int bound = random.nextInt(20);
+        return switch (random.nextInt(3)) {
+            case 0 -> "x > " + bound;
+            case 1 -> "y + x < " + bound;
+            default -> "x % 2 == " + (bound % 2);
+        };
+    }
+
+    private StringBuilder indent(int levels) {
+        for (int i = 0; i < levels; i++) {
+            code.append("    ");
+        }
+        return code;
+    }
+}
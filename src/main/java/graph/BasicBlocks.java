@@ -0,0 +1,123 @@
+package graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Merges straight-line runs of statements into basic blocks. A statement or method call node is folded into the node
+ * before it when that node is also a statement or method call whose only edge leads to it, it has no other incoming
+ * edge, and the edge between them is unlabeled. The merged node shows one statement per line.
+ * <p>
+ * An edge is only folded away if its dead flag is the same as that of every edge entering the block, so each block is
+ * either entirely live or entirely dead and every edge that is left keeps its original flag.
+ */
+public final class BasicBlocks {
+
+    private BasicBlocks() {
+    }
+
+    public static ControlFlowGraph coalesce(ControlFlowGraph graph) {
+        int nodeCount = graph.nodeCount();
+        int[] inDegree = new int[nodeCount];
+        int[] deadInDegree = new int[nodeCount];
+        for (int edge = 0; edge < graph.edgeCount(); edge++) {
+            int target = graph.edgeTarget(edge);
+            inDegree[target]++;
+            if (graph.isEdgeDead(edge)) {
+                deadInDegree[target]++;
+            }
+        }
+
+        // A node is absorbed when the single edge leading to it gets folded into its predecessor's block
+        BitSet absorbed = new BitSet(nodeCount);
+        for (int node = 0; node < nodeCount; node++) {
+            if (isFoldable(graph, node, inDegree, deadInDegree)) {
+                absorbed.set(graph.edgeTarget(graph.firstEdge(node)));
+            }
+        }
+        if (absorbed.isEmpty()) {
+            return graph;
+        }
+
+        // Every node that is not absorbed starts a block; blocks keep the relative order of their first node
+        int[] blockOf = new int[nodeCount];
+        int blockCount = 0;
+        for (int node = 0; node < nodeCount; node++) {
+            blockOf[node] = absorbed.get(node) ? -1 : blockCount++;
+        }
+
+        byte[] blockTypes = new byte[blockCount];
+        String[] texts = new String[blockCount];
+        int[] edgeOffsets = new int[blockCount + 1];
+        int[] edgeTargets = new int[graph.edgeCount()];
+        int[] edgeLabels = new int[graph.edgeCount()];
+        BitSet deadEdges = new BitSet();
+        Map<String, Integer> labelIds = new HashMap<>();
+        List<String> labels = new ArrayList<>();
+
+        int edge = 0;
+        for (int head = 0; head < nodeCount; head++) {
+            int block = blockOf[head];
+            if (block < 0) {
+                continue;
+            }
+            BlockType blockType = graph.blockType(head);
+            StringBuilder text = new StringBuilder(graph.text(head));
+            int tail = head;
+            while (isFoldable(graph, tail, inDegree, deadInDegree)) {
+                tail = graph.edgeTarget(graph.firstEdge(tail));
+                text.append('\n').append(graph.text(tail));
+                if (graph.blockType(tail) != blockType) {
+                    blockType = BlockType.STMT;
+                }
+            }
+
+            blockTypes[block] = (byte) blockType.ordinal();
+            texts[block] = text.toString();
+            edgeOffsets[block] = edge;
+            // The block leaves through the edges of its last node, whose targets always start blocks of their own
+            for (int e = graph.firstEdge(tail); e < graph.endEdge(tail); e++) {
+                edgeTargets[edge] = blockOf[graph.edgeTarget(e)];
+                edgeLabels[edge] = labelIds.computeIfAbsent(graph.edgeLabel(e), label -> {
+                    labels.add(label);
+                    return labels.size() - 1;
+                });
+                if (graph.isEdgeDead(e)) {
+                    deadEdges.set(edge);
+                }
+                edge++;
+            }
+        }
+        edgeOffsets[blockCount] = edge;
+
+        int[] roots = new int[graph.rootCount()];
+        for (int i = 0; i < roots.length; i++) {
+            roots[i] = blockOf[graph.root(i)];
+        }
+        return new ControlFlowGraph(roots, blockTypes, texts, edgeOffsets, Arrays.copyOf(edgeTargets, edge),
+                Arrays.copyOf(edgeLabels, edge), labels.toArray(new String[0]), deadEdges);
+    }
+
+    // whether the only edge leaving the node can be folded into a block together with the node it leads to
+    private static boolean isFoldable(ControlFlowGraph graph, int node, int[] inDegree, int[] deadInDegree) {
+        if (!isStraightLine(graph.blockType(node)) || graph.endEdge(node) - graph.firstEdge(node) != 1) {
+            return false;
+        }
+        int edge = graph.firstEdge(node);
+        int target = graph.edgeTarget(edge);
+        if (target == node || !isStraightLine(graph.blockType(target)) || inDegree[target] != 1
+                || !graph.edgeLabel(edge).isEmpty()) {
+            return false;
+        }
+        int sameFlagInDegree = graph.isEdgeDead(edge) ? deadInDegree[node] : inDegree[node] - deadInDegree[node];
+        return sameFlagInDegree == inDegree[node];
+    }
+
+    private static boolean isStraightLine(BlockType type) {
+        return type == BlockType.STMT || type == BlockType.METHOD_CALL;
+    }
+}
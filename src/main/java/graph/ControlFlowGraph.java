@@ -0,0 +1,213 @@
+package graph;
+
+import java.util.*;
+
+/**
+ * Compact, read-only form of the graphs built by the visitor. Nodes get sequential int ids, and the edges of node n are
+ * the edge ids from {@link #firstEdge(int)} up to {@link #endEdge(int)}, stored in compressed sparse row arrays.
+ * Edge labels are interned, so the handful of distinct labels ("then", "else", "case 1", ...) are stored only once.
+ * <p>
+ * This is the output format of the analysis, not what the visitor builds: the visitor still works on linked
+ * {@link GraphNode}s, and the graph is copied into this form once it is complete. Callers should drop the linked graph
+ * as soon as the copy is made, so that the two are not kept alive together.
+ */
+public final class ControlFlowGraph {
+
+    private static final BlockType[] BLOCK_TYPES = BlockType.values();
+
+    private final int[] roots;
+    private final byte[] blockTypes;
+    private final String[] texts;
+    private final int[] edgeOffsets; // Edges of node n are edgeOffsets[n] until edgeOffsets[n + 1]
+    private final int[] edgeTargets;
+    private final int[] edgeLabels;
+    private final String[] labels;
+    private final BitSet deadEdges;
+
+    ControlFlowGraph(int[] roots, byte[] blockTypes, String[] texts, int[] edgeOffsets, int[] edgeTargets,
+                     int[] edgeLabels, String[] labels, BitSet deadEdges) {
+        this.roots = roots;
+        this.blockTypes = blockTypes;
+        this.texts = texts;
+        this.edgeOffsets = edgeOffsets;
+        this.edgeTargets = edgeTargets;
+        this.edgeLabels = edgeLabels;
+        this.labels = labels;
+        this.deadEdges = deadEdges;
+    }
+
+    /**
+     * Copies everything reachable from the given root nodes. Nodes reachable from several roots are stored once.
+     * @param rootNodes - one node per method, in the order they should be shown.
+     */
+    public static ControlFlowGraph of(List<GraphNode> rootNodes) {
+        Map<GraphNode, Integer> ids = new IdentityHashMap<>();
+        List<GraphNode> nodes = new ArrayList<>();
+        int[] roots = new int[rootNodes.size()];
+        int edgeCount = 0;
+
+        // Iterative depth-first numbering, so deep graphs cannot overflow the stack
+        Deque<GraphNode> pending = new ArrayDeque<>();
+        for (int r = 0; r < roots.length; r++) {
+            GraphNode root = rootNodes.get(r);
+            roots[r] = idOf(root, ids, nodes, pending);
+            while (!pending.isEmpty()) {
+                GraphNode node = pending.pop();
+                edgeCount += node.edges.size();
+                for (int e = node.edges.size() - 1; e >= 0; e--) {
+                    idOf(node.edges.get(e).getNode(), ids, nodes, pending);
+                }
+            }
+        }
+
+        byte[] blockTypes = new byte[nodes.size()];
+        String[] texts = new String[nodes.size()];
+        int[] edgeOffsets = new int[nodes.size() + 1];
+        int[] edgeTargets = new int[edgeCount];
+        int[] edgeLabels = new int[edgeCount];
+        BitSet deadEdges = new BitSet(edgeCount);
+        Map<String, Integer> labelIds = new HashMap<>();
+        List<String> labels = new ArrayList<>();
+
+        int edge = 0;
+        for (int n = 0; n < nodes.size(); n++) {
+            GraphNode node = nodes.get(n);
+            blockTypes[n] = (byte) node.blockType.ordinal();
+            texts[n] = node.text;
+            edgeOffsets[n] = edge;
+            for (GraphEdge graphEdge : node.edges) {
+                edgeTargets[edge] = ids.get(graphEdge.getNode());
+                edgeLabels[edge] = labelIds.computeIfAbsent(graphEdge.label, label -> {
+                    labels.add(label);
+                    return labels.size() - 1;
+                });
+                if (graphEdge.isDead) {
+                    deadEdges.set(edge);
+                }
+                edge++;
+            }
+        }
+        edgeOffsets[nodes.size()] = edge;
+
+        return new ControlFlowGraph(roots, blockTypes, texts, edgeOffsets, edgeTargets, edgeLabels,
+                labels.toArray(new String[0]), deadEdges);
+    }
+
+    private static int idOf(GraphNode node, Map<GraphNode, Integer> ids, List<GraphNode> nodes,
+                            Deque<GraphNode> pending) {
+        Integer id = ids.get(node);
+        if (id == null) {
+            id = nodes.size();
+            ids.put(node, id);
+            nodes.add(node);
+            pending.push(node);
+        }
+        return id;
+    }
+
+    /**
+     * Copies the i-th method on its own, so that it can be rendered without the others.
+     * @return a graph whose only root is the i-th root of this one.
+     */
+    public ControlFlowGraph method(int i) {
+        BitSet reachable = new BitSet(nodeCount());
+        Deque<Integer> pending = new ArrayDeque<>();
+        reachable.set(roots[i]);
+        pending.push(roots[i]);
+        while (!pending.isEmpty()) {
+            int node = pending.pop();
+            for (int edge = firstEdge(node); edge < endEdge(node); edge++) {
+                int target = edgeTargets[edge];
+                if (!reachable.get(target)) {
+                    reachable.set(target);
+                    pending.push(target);
+                }
+            }
+        }
+
+        // Nodes keep their relative order
+        int[] ids = new int[nodeCount()];
+        int count = 0;
+        int edgeCount = 0;
+        for (int node = reachable.nextSetBit(0); node >= 0; node = reachable.nextSetBit(node + 1)) {
+            ids[node] = count++;
+            edgeCount += endEdge(node) - firstEdge(node);
+        }
+
+        byte[] subBlockTypes = new byte[count];
+        String[] subTexts = new String[count];
+        int[] subEdgeOffsets = new int[count + 1];
+        int[] subEdgeTargets = new int[edgeCount];
+        int[] subEdgeLabels = new int[edgeCount];
+        BitSet subDeadEdges = new BitSet(edgeCount);
+        int n = 0;
+        int subEdge = 0;
+        for (int node = reachable.nextSetBit(0); node >= 0; node = reachable.nextSetBit(node + 1), n++) {
+            subBlockTypes[n] = blockTypes[node];
+            subTexts[n] = texts[node];
+            subEdgeOffsets[n] = subEdge;
+            for (int edge = firstEdge(node); edge < endEdge(node); edge++, subEdge++) {
+                subEdgeTargets[subEdge] = ids[edgeTargets[edge]];
+                subEdgeLabels[subEdge] = edgeLabels[edge];
+                if (deadEdges.get(edge)) {
+                    subDeadEdges.set(subEdge);
+                }
+            }
+        }
+        subEdgeOffsets[count] = subEdge;
+
+        // The label table is shared; it is never modified
+        return new ControlFlowGraph(new int[]{ids[roots[i]]}, subBlockTypes, subTexts, subEdgeOffsets,
+                subEdgeTargets, subEdgeLabels, labels, subDeadEdges);
+    }
+
+    public int nodeCount() {
+        return blockTypes.length;
+    }
+
+    public int edgeCount() {
+        return edgeTargets.length;
+    }
+
+    public int rootCount() {
+        return roots.length;
+    }
+
+    /**
+     * @return id of the method declaration node of the i-th method.
+     */
+    public int root(int i) {
+        return roots[i];
+    }
+
+    public BlockType blockType(int node) {
+        return BLOCK_TYPES[blockTypes[node]];
+    }
+
+    public String text(int node) {
+        return texts[node];
+    }
+
+    public int firstEdge(int node) {
+        return edgeOffsets[node];
+    }
+
+    /**
+     * @return one past the id of the last edge leaving the node.
+     */
+    public int endEdge(int node) {
+        return edgeOffsets[node + 1];
+    }
+
+    public int edgeTarget(int edge) {
+        return edgeTargets[edge];
+    }
+
+    public String edgeLabel(int edge) {
+        return labels[edgeLabels[edge]];
+    }
+
+    public boolean isEdgeDead(int edge) {
+        return deadEdges.get(edge);
+    }
+}
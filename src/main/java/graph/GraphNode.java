@@ -2,17 +2,17 @@ package graph;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Objects;
-import java.util.UUID;
 
+/**
+ * Node of the graph while it is being built by the visitor. Nodes are only equal to themselves; once the visitor is
+ * done they are copied into a {@link ControlFlowGraph}.
+ */
 public class GraphNode {
-    private final UUID uuid;
     public BlockType blockType;
     public String text;
     public List<GraphEdge> edges;
 
     public GraphNode(BlockType bt, String t) {
-        this.uuid = UUID.randomUUID();
         this.blockType = bt;
         this.text = t;
         this.edges = new ArrayList<>();
@@ -30,14 +30,6 @@ public class GraphNode {
         return this.text.equals(gn.text) && this.blockType.equals(gn.blockType);
     }
 
-    @Override
-    public boolean equals(Object o) {
-        if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
-        GraphNode graphNode = (GraphNode) o;
-        return blockType == graphNode.blockType && Objects.equals(text, graphNode.text) && Objects.equals(edges, graphNode.edges) && Objects.equals(uuid, graphNode.uuid);
-    }
-
     @Override
     public String toString() {
         return "GraphNode{" +
@@ -45,9 +37,4 @@ public class GraphNode {
                 ", text='" + text + '\'' +
                 '}';
     }
-
-    @Override
-    public int hashCode() {
-        return uuid.hashCode();
-    }
 }
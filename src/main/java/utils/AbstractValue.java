@@ -0,0 +1,193 @@
+package utils;
+
+import org.matheclipse.core.expression.F;
+import org.matheclipse.core.interfaces.IExpr;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Value of a variable or expression as far as the analysis can tell: a known int, boolean or String constant,
+ * an array literal, a symbolic Symja expression, or nothing known at all.
+ */
+public final class AbstractValue {
+
+    public enum Kind {
+        INT,
+        BOOLEAN,
+        STRING,
+        ARRAY,
+        SYMBOLIC,
+        UNKNOWN
+    }
+
+    public static final AbstractValue UNKNOWN = new AbstractValue(Kind.UNKNOWN, null);
+    public static final AbstractValue TRUE = new AbstractValue(Kind.BOOLEAN, true);
+    public static final AbstractValue FALSE = new AbstractValue(Kind.BOOLEAN, false);
+
+    private final Kind kind;
+    private final Object value;
+
+    private AbstractValue(Kind kind, Object value) {
+        this.kind = kind;
+        this.value = value;
+    }
+
+    public static AbstractValue ofInt(int value) {
+        return new AbstractValue(Kind.INT, value);
+    }
+
+    public static AbstractValue ofBoolean(boolean value) {
+        return value ? TRUE : FALSE;
+    }
+
+    public static AbstractValue ofString(String value) {
+        return new AbstractValue(Kind.STRING, value);
+    }
+
+    public static AbstractValue ofArray(List<AbstractValue> elements) {
+        return new AbstractValue(Kind.ARRAY, Collections.unmodifiableList(elements));
+    }
+
+    public static AbstractValue ofSymbolic(IExpr expr) {
+        return new AbstractValue(Kind.SYMBOLIC, expr);
+    }
+
+    /**
+     * Converts a result coming out of Symja, folding it back into a constant where possible.
+     * @param expr - may be null for variables that have no value.
+     */
+    public static AbstractValue fromSymja(IExpr expr) {
+        if (expr == null) {
+            return UNKNOWN;
+        } else if (expr.isTrue()) {
+            return TRUE;
+        } else if (expr.isFalse()) {
+            return FALSE;
+        } else if (expr.isString()) {
+            return ofString(expr.toString());
+        } else if (expr.isInteger()) {
+            try {
+                return ofInt(Integer.parseInt(expr.toString()));
+            } catch (NumberFormatException e) {
+                // Does not fit in a Java int, keep Symja's exact value
+                return ofSymbolic(expr);
+            }
+        }
+        return ofSymbolic(expr);
+    }
+
+    /**
+     * @return the value as a Symja expression, or null if nothing is known about it.
+     */
+    public IExpr toSymja() {
+        return switch (kind) {
+            case INT -> F.ZZ((int) value);
+            case BOOLEAN -> (boolean) value ? F.True : F.False;
+            case STRING -> F.stringx((String) value);
+            case ARRAY -> arrayToSymja();
+            case SYMBOLIC -> (IExpr) value;
+            case UNKNOWN -> null;
+        };
+    }
+
+    /**
+     * @return the same value with every int constant, also inside arrays, turned into a symbolic Symja number.
+     */
+    public AbstractValue toSymbolic() {
+        if (kind == Kind.INT) {
+            return ofSymbolic(toSymja());
+        } else if (kind == Kind.ARRAY) {
+            List<AbstractValue> elements = new ArrayList<>(asArray().size());
+            for (AbstractValue element : asArray()) {
+                elements.add(element.toSymbolic());
+            }
+            return ofArray(elements);
+        }
+        return this;
+    }
+
+    private IExpr arrayToSymja() {
+        List<AbstractValue> elements = asArray();
+        IExpr[] exprs = new IExpr[elements.size()];
+        for (int i = 0; i < exprs.length; i++) {
+            exprs[i] = elements.get(i).toSymja();
+            if (exprs[i] == null) {
+                return null;
+            }
+        }
+        return F.List(exprs);
+    }
+
+    /**
+     * Least upper bound of two values, used where control flow paths merge.
+     */
+    public AbstractValue join(AbstractValue other) {
+        return this.equals(other) ? this : UNKNOWN;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public boolean isConstant() {
+        return kind == Kind.INT || kind == Kind.BOOLEAN || kind == Kind.STRING;
+    }
+
+    public boolean isUnknown() {
+        return kind == Kind.UNKNOWN;
+    }
+
+    public boolean isTrue() {
+        return this == TRUE;
+    }
+
+    public boolean isFalse() {
+        return this == FALSE;
+    }
+
+    public int asInt() {
+        return (int) value;
+    }
+
+    public String asString() {
+        return (String) value;
+    }
+
+    @SuppressWarnings("unchecked")
+    public List<AbstractValue> asArray() {
+        return (List<AbstractValue>) value;
+    }
+
+    /**
+     * @return the constant as a Java object, or null if it is not a constant.
+     */
+    public Object asObject() {
+        return isConstant() ? value : null;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        AbstractValue that = (AbstractValue) o;
+        // Symbolic values are only equal when they are the same Symja expression
+        return kind == that.kind && (kind == Kind.SYMBOLIC ? value == that.value : Objects.equals(value, that.value));
+    }
+
+    @Override
+    public int hashCode() {
+        return kind == Kind.SYMBOLIC ? System.identityHashCode(value) : Objects.hash(kind, value);
+    }
+
+    @Override
+    public String toString() {
+        return switch (kind) {
+            case STRING -> "\"" + value + "\"";
+            case UNKNOWN -> "unknown";
+            default -> String.valueOf(value);
+        };
+    }
+}
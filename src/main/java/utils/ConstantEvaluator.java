@@ -0,0 +1,263 @@
+package utils;
+
+import com.github.javaparser.ast.Node;
+import com.github.javaparser.ast.expr.*;
+import com.github.javaparser.ast.type.PrimitiveType;
+import com.github.javaparser.ast.type.Type;
+import com.github.javaparser.ast.visitor.GenericVisitorWithDefaults;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * Folds int, boolean, String and array constants with Java semantics (including int overflow) without going through
+ * Symja. Values of long, float and double variables are left to Symja, see
+ * {@link #forDeclaredType(Type, AbstractValue)}.
+ * Anything it cannot fold comes back as {@link AbstractValue#UNKNOWN}; {@link #benefitsFromSymja(Expression)} tells
+ * whether Symja could still simplify such an expression.
+ */
+public class ConstantEvaluator extends GenericVisitorWithDefaults<AbstractValue, Function<String, AbstractValue>> {
+
+    private static final ConstantEvaluator INSTANCE = new ConstantEvaluator();
+
+    private ConstantEvaluator() {
+    }
+
+    /**
+     * Evaluates the given expression.
+     * @param expression
+     * @param variables - looks up the current value of a variable by name.
+     * @return the constant value of the expression, or a non-constant value if it cannot be folded.
+     */
+    public static AbstractValue evaluate(Expression expression, Function<String, AbstractValue> variables) {
+        return expression.accept(INSTANCE, variables);
+    }
+
+    /**
+     * Whether an expression that could not be folded contains arithmetic, comparisons or numbers that Symja may still
+     * be able to simplify (eg. x - x == 0, doubles, lengths of array parameters). Anything else would only come back
+     * from Symja unevaluated.
+     */
+    public static boolean benefitsFromSymja(Expression expression) {
+        return expression.findFirst(BinaryExpr.class).isPresent()
+                || expression.findFirst(FieldAccessExpr.class).isPresent()
+                || expression.findFirst(DoubleLiteralExpr.class).isPresent()
+                || expression.findFirst(LongLiteralExpr.class).isPresent();
+    }
+
+    /**
+     * Value to keep for a variable declared with the given type. The folder only has int arithmetic, which is right for
+     * int, short, byte and char variables; a long, float or double variable keeps its value as a Symja number instead,
+     * so that this folder leaves every expression using it to Symja.
+     */
+    public static AbstractValue forDeclaredType(Type type, AbstractValue value) {
+        Type elementType = type.getElementType();
+        boolean wider;
+        if (elementType.isPrimitiveType()) {
+            PrimitiveType.Primitive primitive = elementType.asPrimitiveType().getType();
+            wider = primitive == PrimitiveType.Primitive.LONG || primitive == PrimitiveType.Primitive.FLOAT
+                    || primitive == PrimitiveType.Primitive.DOUBLE;
+        } else if (elementType.isClassOrInterfaceType()) {
+            String name = elementType.asClassOrInterfaceType().getNameAsString();
+            wider = name.equals("Long") || name.equals("Float") || name.equals("Double");
+        } else {
+            wider = false;
+        }
+        return wider ? value.toSymbolic() : value;
+    }
+
+    @Override
+    public AbstractValue defaultAction(Node n, Function<String, AbstractValue> variables) {
+        return AbstractValue.UNKNOWN;
+    }
+
+    @Override
+    public AbstractValue visit(NameExpr n, Function<String, AbstractValue> variables) {
+        return variables.apply(n.getNameAsString());
+    }
+
+    @Override
+    public AbstractValue visit(EnclosedExpr n, Function<String, AbstractValue> variables) {
+        return n.getInner().accept(this, variables);
+    }
+
+    @Override
+    public AbstractValue visit(IntegerLiteralExpr n, Function<String, AbstractValue> variables) {
+        // asNumber() also handles hex, octal, binary and underscores
+        return AbstractValue.ofInt(n.asNumber().intValue());
+    }
+
+    @Override
+    public AbstractValue visit(BooleanLiteralExpr n, Function<String, AbstractValue> variables) {
+        return AbstractValue.ofBoolean(n.getValue());
+    }
+
+    @Override
+    public AbstractValue visit(StringLiteralExpr n, Function<String, AbstractValue> variables) {
+        return AbstractValue.ofString(n.asString());
+    }
+
+    @Override
+    public AbstractValue visit(ArrayInitializerExpr n, Function<String, AbstractValue> variables) {
+        List<AbstractValue> elements = new ArrayList<>(n.getValues().size());
+        for (Expression value : n.getValues()) {
+            elements.add(value.accept(this, variables));
+        }
+        return AbstractValue.ofArray(elements);
+    }
+
+    @Override
+    public AbstractValue visit(ArrayCreationExpr n, Function<String, AbstractValue> variables) {
+        // new int[]{1, 2, 3}
+        return n.getInitializer().isPresent() ? n.getInitializer().get().accept(this, variables) : AbstractValue.UNKNOWN;
+    }
+
+    @Override
+    public AbstractValue visit(ArrayAccessExpr n, Function<String, AbstractValue> variables) {
+        AbstractValue array = n.getName().accept(this, variables);
+        AbstractValue index = n.getIndex().accept(this, variables);
+        if (array.getKind() == AbstractValue.Kind.ARRAY && index.getKind() == AbstractValue.Kind.INT
+                && index.asInt() >= 0 && index.asInt() < array.asArray().size()) {
+            return array.asArray().get(index.asInt());
+        }
+        return AbstractValue.UNKNOWN;
+    }
+
+    @Override
+    public AbstractValue visit(FieldAccessExpr n, Function<String, AbstractValue> variables) {
+        AbstractValue scope = n.getScope().accept(this, variables);
+        if (n.getNameAsString().equals("length") && scope.getKind() == AbstractValue.Kind.ARRAY) {
+            return AbstractValue.ofInt(scope.asArray().size());
+        }
+        return AbstractValue.UNKNOWN;
+    }
+
+    @Override
+    public AbstractValue visit(ConditionalExpr n, Function<String, AbstractValue> variables) {
+        AbstractValue condition = n.getCondition().accept(this, variables);
+        if (condition.isTrue()) {
+            return n.getThenExpr().accept(this, variables);
+        } else if (condition.isFalse()) {
+            return n.getElseExpr().accept(this, variables);
+        }
+        return AbstractValue.UNKNOWN;
+    }
+
+    @Override
+    public AbstractValue visit(UnaryExpr n, Function<String, AbstractValue> variables) {
+        AbstractValue operand = n.getExpression().accept(this, variables);
+        if (operand.getKind() == AbstractValue.Kind.INT) {
+            return switch (n.getOperator()) {
+                case PLUS -> operand;
+                case MINUS -> AbstractValue.ofInt(-operand.asInt());
+                case BITWISE_COMPLEMENT -> AbstractValue.ofInt(~operand.asInt());
+                // Increments change the variable, which is handled by the visitor
+                default -> AbstractValue.UNKNOWN;
+            };
+        }
+        if (operand.getKind() == AbstractValue.Kind.BOOLEAN && n.getOperator() == UnaryExpr.Operator.LOGICAL_COMPLEMENT) {
+            return AbstractValue.ofBoolean(!operand.isTrue());
+        }
+        return AbstractValue.UNKNOWN;
+    }
+
+    @Override
+    public AbstractValue visit(BinaryExpr n, Function<String, AbstractValue> variables) {
+        BinaryExpr.Operator operator = n.getOperator();
+        AbstractValue left = n.getLeft().accept(this, variables);
+
+        // Short-circuit operators decide on the left operand alone
+        if (operator == BinaryExpr.Operator.AND && left.isFalse()) {
+            return AbstractValue.FALSE;
+        }
+        if (operator == BinaryExpr.Operator.OR && left.isTrue()) {
+            return AbstractValue.TRUE;
+        }
+
+        AbstractValue right = n.getRight().accept(this, variables);
+        if (operator == BinaryExpr.Operator.AND) {
+            if (right.isFalse()) {
+                return AbstractValue.FALSE;
+            }
+            return left.isTrue() && right.isTrue() ? AbstractValue.TRUE : AbstractValue.UNKNOWN;
+        }
+        if (operator == BinaryExpr.Operator.OR) {
+            if (right.isTrue()) {
+                return AbstractValue.TRUE;
+            }
+            return left.isFalse() && right.isFalse() ? AbstractValue.FALSE : AbstractValue.UNKNOWN;
+        }
+
+        if (left.getKind() == AbstractValue.Kind.INT && right.getKind() == AbstractValue.Kind.INT) {
+            return evaluateInt(operator, left.asInt(), right.asInt());
+        }
+        if (left.getKind() == AbstractValue.Kind.BOOLEAN && right.getKind() == AbstractValue.Kind.BOOLEAN) {
+            return evaluateBoolean(operator, left.isTrue(), right.isTrue());
+        }
+        if (operator == BinaryExpr.Operator.PLUS && left.isConstant() && right.isConstant()
+                && (left.getKind() == AbstractValue.Kind.STRING || right.getKind() == AbstractValue.Kind.STRING)) {
+            return AbstractValue.ofString(String.valueOf(left.asObject()) + right.asObject());
+        }
+        // String == compares references, which cannot be known statically
+        return AbstractValue.UNKNOWN;
+    }
+
+    @Override
+    public AbstractValue visit(MethodCallExpr n, Function<String, AbstractValue> variables) {
+        if (n.getScope().isEmpty()) {
+            return AbstractValue.UNKNOWN;
+        }
+        AbstractValue scope = n.getScope().get().accept(this, variables);
+        if (scope.getKind() != AbstractValue.Kind.STRING) {
+            return AbstractValue.UNKNOWN;
+        }
+
+        if (n.getNameAsString().equals("length") && n.getArguments().isEmpty()) {
+            return AbstractValue.ofInt(scope.asString().length());
+        }
+        if (n.getNameAsString().equals("equals") && n.getArguments().size() == 1) {
+            AbstractValue argument = n.getArgument(0).accept(this, variables);
+            if (argument.isConstant()) {
+                return AbstractValue.ofBoolean(Objects.equals(scope.asObject(), argument.asObject()));
+            }
+        }
+        return AbstractValue.UNKNOWN;
+    }
+
+    private AbstractValue evaluateInt(BinaryExpr.Operator operator, int left, int right) {
+        return switch (operator) {
+            case PLUS -> AbstractValue.ofInt(left + right);
+            case MINUS -> AbstractValue.ofInt(left - right);
+            case MULTIPLY -> AbstractValue.ofInt(left * right);
+            // Division by zero throws at runtime, so there is no value to propagate
+            case DIVIDE -> right == 0 ? AbstractValue.UNKNOWN : AbstractValue.ofInt(left / right);
+            case REMAINDER -> right == 0 ? AbstractValue.UNKNOWN : AbstractValue.ofInt(left % right);
+            case BINARY_AND -> AbstractValue.ofInt(left & right);
+            case BINARY_OR -> AbstractValue.ofInt(left | right);
+            case XOR -> AbstractValue.ofInt(left ^ right);
+            case LEFT_SHIFT -> AbstractValue.ofInt(left << right);
+            case SIGNED_RIGHT_SHIFT -> AbstractValue.ofInt(left >> right);
+            case UNSIGNED_RIGHT_SHIFT -> AbstractValue.ofInt(left >>> right);
+            case EQUALS -> AbstractValue.ofBoolean(left == right);
+            case NOT_EQUALS -> AbstractValue.ofBoolean(left != right);
+            case LESS -> AbstractValue.ofBoolean(left < right);
+            case LESS_EQUALS -> AbstractValue.ofBoolean(left <= right);
+            case GREATER -> AbstractValue.ofBoolean(left > right);
+            case GREATER_EQUALS -> AbstractValue.ofBoolean(left >= right);
+            default -> AbstractValue.UNKNOWN;
+        };
+    }
+
+    private AbstractValue evaluateBoolean(BinaryExpr.Operator operator, boolean left, boolean right) {
+        return switch (operator) {
+            case EQUALS -> AbstractValue.ofBoolean(left == right);
+            case NOT_EQUALS -> AbstractValue.ofBoolean(left != right);
+            case BINARY_AND -> AbstractValue.ofBoolean(left & right);
+            case BINARY_OR -> AbstractValue.ofBoolean(left | right);
+            case XOR -> AbstractValue.ofBoolean(left ^ right);
+            default -> AbstractValue.UNKNOWN;
+        };
+    }
+}
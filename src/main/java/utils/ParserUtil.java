@@ -1,12 +1,23 @@
 package utils;
 
+import com.github.javaparser.ast.Node;
 import com.github.javaparser.ast.NodeList;
+import com.github.javaparser.ast.body.CallableDeclaration;
 import com.github.javaparser.ast.body.Parameter;
+import com.github.javaparser.ast.body.VariableDeclarator;
 import com.github.javaparser.ast.expr.Expression;
-import org.matheclipse.core.eval.ExprEvaluator;
-import org.matheclipse.core.interfaces.IExpr;
+import com.github.javaparser.ast.expr.LambdaExpr;
+import com.github.javaparser.ast.expr.VariableDeclarationExpr;
+import com.github.javaparser.ast.nodeTypes.NodeWithStatements;
+import com.github.javaparser.ast.stmt.CatchClause;
+import com.github.javaparser.ast.stmt.ExpressionStmt;
+import com.github.javaparser.ast.stmt.ForEachStmt;
+import com.github.javaparser.ast.stmt.ForStmt;
+import com.github.javaparser.ast.stmt.Statement;
+import com.github.javaparser.ast.type.Type;
 
-import java.util.*;
+import java.util.List;
+import java.util.Optional;
 
 /**
  * Util class intended to process certain nodes and extract information into desired structures.
@@ -14,27 +25,84 @@ import java.util.*;
 public class ParserUtil {
 
     /**
-     * Extracts information from parameter names and inputted values into given Evaluator.
+     * Binds parameter names to the values of the given arguments.
      * @param param
-     * @param values
-     * @param eval
-     * @return - names of the defined variables.
+     * @param values - values of the arguments, in order.
+     * @return - environment with the parameters defined.
      */
-    public static Set<String> processParameters(NodeList<Parameter> param, NodeList<Expression> values,
-                                                ExprEvaluator eval) {
+    public static VariableEnvironment processParameters(NodeList<Parameter> param, List<AbstractValue> values) {
         assert param.size() == values.size();
-        assert eval != null;
 
-        Set<String> definedParams = new HashSet<>();
+        VariableEnvironment definedParams = VariableEnvironment.EMPTY;
         for (int i = 0; i < param.size(); i++) {
-            Parameter p = param.get(i);
-            Expression e = values.get(i);
-            String assignmentStr = p.getName().asString() + "=" + e.toString();
-            IExpr res = eval.eval(assignmentStr);
-            eval.defineVariable(p.getNameAsString(), res);
-            definedParams.add(p.getNameAsString());
+            definedParams = definedParams.with(param.get(i).getNameAsString(),
+                    ConstantEvaluator.forDeclaredType(param.get(i).getType(), values.get(i)));
         }
-        return  definedParams;
+        return definedParams;
+    }
+
+    /**
+     * Finds the declared type of a local variable or parameter by walking out of the scopes around the given node.
+     * @param at - node where the variable is used.
+     * @param name
+     * @return the type, or empty if the name is not declared in the enclosing method, eg. a field.
+     */
+    public static Optional<Type> declaredType(Node at, String name) {
+        Node child = at;
+        Node scope = at.getParentNode().orElse(null);
+        while (scope != null) {
+            Optional<Type> type = Optional.empty();
+            if (scope instanceof NodeWithStatements<?> block) {
+                // Only declarations before the use are in scope
+                for (Statement statement : block.getStatements()) {
+                    if (statement == child) {
+                        break;
+                    }
+                    if (type.isEmpty() && statement instanceof ExpressionStmt expressionStmt) {
+                        type = declaredIn(expressionStmt.getExpression(), name);
+                    }
+                }
+            } else if (scope instanceof ForStmt forStmt) {
+                for (Expression initialization : forStmt.getInitialization()) {
+                    type = type.or(() -> declaredIn(initialization, name));
+                }
+            } else if (scope instanceof ForEachStmt forEachStmt) {
+                type = declaredIn(forEachStmt.getVariable(), name);
+            } else if (scope instanceof CatchClause catchClause) {
+                type = declaredIn(NodeList.nodeList(catchClause.getParameter()), name);
+            } else if (scope instanceof LambdaExpr lambda) {
+                type = declaredIn(lambda.getParameters(), name);
+            } else if (scope instanceof CallableDeclaration<?> callable) {
+                // Anything not declared in the method is a field
+                return declaredIn(callable.getParameters(), name);
+            }
+            if (type.isPresent()) {
+                return type;
+            }
+            child = scope;
+            scope = scope.getParentNode().orElse(null);
+        }
+        return Optional.empty();
+    }
+
+    private static Optional<Type> declaredIn(Expression expression, String name) {
+        if (expression instanceof VariableDeclarationExpr declaration) {
+            for (VariableDeclarator variable : declaration.getVariables()) {
+                if (variable.getNameAsString().equals(name)) {
+                    return Optional.of(variable.getType());
+                }
+            }
+        }
+        return Optional.empty();
+    }
+
+    private static Optional<Type> declaredIn(NodeList<Parameter> parameters, String name) {
+        for (Parameter parameter : parameters) {
+            if (parameter.getNameAsString().equals(name)) {
+                return Optional.of(parameter.getType());
+            }
+        }
+        return Optional.empty();
     }
 
     /**
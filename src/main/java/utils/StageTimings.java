@@ -0,0 +1,101 @@
+package utils;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Time spent in each stage of the pipeline for one request. Methods analyzed in parallel add to the same instance, so
+ * resolve and symja are summed over every thread, while the other stages are measured once around the whole stage.
+ * Visit includes the resolve and symja time spent inside it.
+ */
+public class StageTimings {
+
+    public enum Stage {
+        PARSE, RESOLVE, VISIT, SYMJA, DOT, LAYOUT;
+
+        /**
+         * @return the name used in metrics and Server-Timing headers.
+         */
+        public String id() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private static final Stage[] STAGES = Stage.values();
+
+    private final LongAdder[] nanos = new LongAdder[STAGES.length];
+    private final LongAdder[] counts = new LongAdder[STAGES.length];
+    private volatile int inputLength;
+    private volatile int methodCount;
+
+    public StageTimings() {
+        for (int i = 0; i < STAGES.length; i++) {
+            nanos[i] = new LongAdder();
+            counts[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * @param startNanos - System.nanoTime() at the start of the stage.
+     */
+    public void end(Stage stage, long startNanos) {
+        nanos[stage.ordinal()].add(System.nanoTime() - startNanos);
+        counts[stage.ordinal()].increment();
+    }
+
+    /**
+     * Adds every stage of other to this, e.g. for a render that was timed against a different input.
+     */
+    public void add(StageTimings other) {
+        for (int i = 0; i < STAGES.length; i++) {
+            nanos[i].add(other.nanos[i].sum());
+            counts[i].add(other.counts[i].sum());
+        }
+    }
+
+    public boolean ran(Stage stage) {
+        return counts[stage.ordinal()].sum() > 0;
+    }
+
+    public long nanos(Stage stage) {
+        return nanos[stage.ordinal()].sum();
+    }
+
+    /**
+     * Describes the input the stages ran on, so that their times can be compared with those of similar inputs.
+     * @param inputLength - length of the source code the stages started from.
+     */
+    public void setInput(int inputLength, int methodCount) {
+        this.inputLength = inputLength;
+        this.methodCount = methodCount;
+    }
+
+    public int getInputLength() {
+        return inputLength;
+    }
+
+    public int getMethodCount() {
+        return methodCount;
+    }
+
+    /**
+     * @return the value of a Server-Timing header listing every stage that ran, followed by the total.
+     */
+    public String toServerTiming(long totalNanos) {
+        StringBuilder header = new StringBuilder();
+        for (Stage stage : STAGES) {
+            if (ran(stage)) {
+                appendMetric(header, stage.id(), nanos(stage));
+                header.append(", ");
+            }
+        }
+        appendMetric(header, "total", totalNanos);
+        return header.toString();
+    }
+
+    private static void appendMetric(StringBuilder header, String name, long nanos) {
+        header.append(name).append(";dur=")
+                .append(String.format(Locale.ROOT, "%.1f", (double) nanos / TimeUnit.MILLISECONDS.toNanos(1)));
+    }
+}
@@ -0,0 +1,151 @@
+package utils;
+
+import com.github.javaparser.ast.Node;
+import com.github.javaparser.ast.expr.*;
+import com.github.javaparser.ast.visitor.GenericVisitorWithDefaults;
+import org.matheclipse.core.expression.F;
+import org.matheclipse.core.interfaces.IExpr;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Translates a JavaParser expression into a Symja expression in a single walk of the tree.
+ * Variables are replaced by their current value, and anything that cannot be expressed in Symja
+ * (or whose value is unknown) becomes an opaque symbol so that it stays symbolic when evaluated.
+ */
+public class SymjaTranslator extends GenericVisitorWithDefaults<IExpr, Function<String, AbstractValue>> {
+
+    private static final SymjaTranslator INSTANCE = new SymjaTranslator();
+
+    private SymjaTranslator() {
+    }
+
+    /**
+     * Translates the given expression, substituting the current value of each variable.
+     * @param expression
+     * @param variables - looks up the current value of a variable by name.
+     * @return unevaluated Symja expression equivalent to the Java expression.
+     */
+    public static IExpr translate(Expression expression, Function<String, AbstractValue> variables) {
+        return expression.accept(INSTANCE, variables);
+    }
+
+    @Override
+    public IExpr defaultAction(Node n, Function<String, AbstractValue> variables) {
+        return unknown(n);
+    }
+
+    @Override
+    public IExpr visit(NameExpr n, Function<String, AbstractValue> variables) {
+        IExpr value = variables.apply(n.getNameAsString()).toSymja();
+        return value == null ? unknown(n) : value;
+    }
+
+    @Override
+    public IExpr visit(EnclosedExpr n, Function<String, AbstractValue> variables) {
+        return n.getInner().accept(this, variables);
+    }
+
+    @Override
+    public IExpr visit(IntegerLiteralExpr n, Function<String, AbstractValue> variables) {
+        return F.ZZ(n.asNumber().longValue());
+    }
+
+    @Override
+    public IExpr visit(LongLiteralExpr n, Function<String, AbstractValue> variables) {
+        return F.ZZ(n.asNumber().longValue());
+    }
+
+    @Override
+    public IExpr visit(DoubleLiteralExpr n, Function<String, AbstractValue> variables) {
+        return F.num(n.asDouble());
+    }
+
+    @Override
+    public IExpr visit(BooleanLiteralExpr n, Function<String, AbstractValue> variables) {
+        return n.getValue() ? F.True : F.False;
+    }
+
+    @Override
+    public IExpr visit(StringLiteralExpr n, Function<String, AbstractValue> variables) {
+        return F.stringx(n.asString());
+    }
+
+    @Override
+    public IExpr visit(ArrayInitializerExpr n, Function<String, AbstractValue> variables) {
+        List<IExpr> values = new ArrayList<>();
+        for (Expression value : n.getValues()) {
+            values.add(value.accept(this, variables));
+        }
+        return F.List(values.toArray(new IExpr[0]));
+    }
+
+    @Override
+    public IExpr visit(UnaryExpr n, Function<String, AbstractValue> variables) {
+        return switch (n.getOperator()) {
+            case PLUS -> n.getExpression().accept(this, variables);
+            case MINUS -> F.Negate(n.getExpression().accept(this, variables));
+            case LOGICAL_COMPLEMENT -> F.Not(n.getExpression().accept(this, variables));
+            // Increments and bitwise complement are not modelled
+            default -> unknown(n);
+        };
+    }
+
+    @Override
+    public IExpr visit(BinaryExpr n, Function<String, AbstractValue> variables) {
+        IExpr left = n.getLeft().accept(this, variables);
+        IExpr right = n.getRight().accept(this, variables);
+        return switch (n.getOperator()) {
+            case PLUS -> F.Plus(left, right);
+            case MINUS -> F.Subtract(left, right);
+            case MULTIPLY -> F.Times(left, right);
+            case DIVIDE -> F.Divide(left, right);
+            case REMAINDER -> F.Mod(left, right);
+            case EQUALS -> F.Equal(left, right);
+            case NOT_EQUALS -> F.Unequal(left, right);
+            case LESS -> F.Less(left, right);
+            case LESS_EQUALS -> F.LessEqual(left, right);
+            case GREATER -> F.Greater(left, right);
+            case GREATER_EQUALS -> F.GreaterEqual(left, right);
+            case AND -> F.And(left, right);
+            case OR -> F.Or(left, right);
+            // Bitwise operators and shifts are not modelled
+            default -> unknown(n);
+        };
+    }
+
+    @Override
+    public IExpr visit(MethodCallExpr n, Function<String, AbstractValue> variables) {
+        if (n.getScope().isPresent()) {
+            Expression scope = n.getScope().get();
+            // some_string.length() -> StringLength(some_string)
+            if (n.getNameAsString().equals("length") && n.getArguments().isEmpty()) {
+                return F.StringLength(scope.accept(this, variables));
+            }
+            // some_string.equals(other) -> some_string == other
+            if (n.getNameAsString().equals("equals") && n.getArguments().size() == 1) {
+                return F.Equal(scope.accept(this, variables), n.getArgument(0).accept(this, variables));
+            }
+        }
+        return unknown(n);
+    }
+
+    @Override
+    public IExpr visit(FieldAccessExpr n, Function<String, AbstractValue> variables) {
+        // some_array.length -> Length(some_array)
+        if (n.getNameAsString().equals("length") && n.getScope().isNameExpr()) {
+            IExpr array = variables.apply(n.getScope().asNameExpr().getNameAsString()).toSymja();
+            if (array != null) {
+                return F.Length(array);
+            }
+            // For symbolic arrays, Symja always returns a length of 0 - we don't want this, so keep the length opaque
+        }
+        return unknown(n);
+    }
+
+    private IExpr unknown(Node n) {
+        return F.Dummy(n.toString());
+    }
+}
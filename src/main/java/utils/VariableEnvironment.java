@@ -0,0 +1,352 @@
+package utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Immutable map from variable name to {@link AbstractValue}, stored as a hash array mapped trie.
+ * Updates copy only the path to the changed entry and share everything else, so taking a snapshot before a branch is
+ * free, and joining two environments at a merge point skips every subtree the branches did not touch.
+ */
+public final class VariableEnvironment implements Function<String, AbstractValue> {
+
+    public static final VariableEnvironment EMPTY = new VariableEnvironment(BitmapNode.EMPTY);
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    private final Trie root;
+
+    private VariableEnvironment(Trie root) {
+        this.root = root;
+    }
+
+    /**
+     * @return the value of the variable, or null if it is not defined.
+     */
+    public AbstractValue get(String name) {
+        return root.get(name, name.hashCode(), 0);
+    }
+
+    /**
+     * @return the value of the variable, or {@link AbstractValue#UNKNOWN} if it is not defined.
+     */
+    @Override
+    public AbstractValue apply(String name) {
+        AbstractValue value = get(name);
+        return value == null ? AbstractValue.UNKNOWN : value;
+    }
+
+    public boolean contains(String name) {
+        return get(name) != null;
+    }
+
+    /**
+     * @return an environment where the variable is defined with the given value; this one is left unchanged.
+     */
+    public VariableEnvironment with(String name, AbstractValue value) {
+        Trie newRoot = root.put(new Entry(name, value), 0);
+        return newRoot == root ? this : new VariableEnvironment(newRoot);
+    }
+
+    /**
+     * Merges the environments of two control flow paths: only variables defined on both are kept, and a variable keeps
+     * its value only if both paths agree on it.
+     */
+    public VariableEnvironment join(VariableEnvironment other) {
+        Object joined = join(root, other.root, 0);
+        if (joined == root) {
+            return this;
+        } else if (joined == other.root) {
+            return other;
+        }
+        return new VariableEnvironment(toTrie(joined, 0));
+    }
+
+    /**
+     * @return an environment with the same variables, none of which have a known value.
+     */
+    public VariableEnvironment withAllUnknown() {
+        VariableEnvironment[] result = {this};
+        forEach((name, value) -> result[0] = result[0].with(name, AbstractValue.UNKNOWN));
+        return result[0];
+    }
+
+    public void forEach(BiConsumer<String, AbstractValue> action) {
+        root.forEach(entry -> action.accept(entry.key, entry.value));
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+        forEach((name, value) -> sb.append(sb.length() > 1 ? ", " : "").append(name).append("=").append(value));
+        return sb.append("}").toString();
+    }
+
+    // Each slot holds either an Entry or a child Trie; null stands for an empty subtree
+    private static Object join(Object a, Object b, int shift) {
+        if (a == b) {
+            return a;
+        }
+        if (a instanceof Entry && b instanceof Entry) {
+            Entry ea = (Entry) a;
+            Entry eb = (Entry) b;
+            return ea.key.equals(eb.key) ? ea.join(eb.value) : null;
+        }
+        if (a instanceof Entry) {
+            return joinEntry((Entry) a, (Trie) b, shift);
+        }
+        if (b instanceof Entry) {
+            return joinEntry((Entry) b, (Trie) a, shift);
+        }
+        if (a instanceof BitmapNode && b instanceof BitmapNode) {
+            return ((BitmapNode) a).join((BitmapNode) b, shift);
+        }
+
+        // Hash collisions are rare enough to just look every entry up
+        Trie ta = (Trie) a;
+        Trie tb = (Trie) b;
+        List<Entry> common = new ArrayList<>();
+        ta.forEach(entry -> {
+            AbstractValue other = tb.get(entry.key, entry.hash, shift);
+            if (other != null) {
+                common.add(entry.join(other));
+            }
+        });
+        Trie result = BitmapNode.EMPTY;
+        for (Entry entry : common) {
+            result = result.put(entry, shift);
+        }
+        return collapse(result);
+    }
+
+    private static Object joinEntry(Entry entry, Trie trie, int shift) {
+        AbstractValue other = trie.get(entry.key, entry.hash, shift);
+        return other == null ? null : entry.join(other);
+    }
+
+    private static Object collapse(Trie trie) {
+        if (trie instanceof BitmapNode) {
+            BitmapNode node = (BitmapNode) trie;
+            if (node.slots.length == 0) {
+                return null;
+            }
+            if (node.slots.length == 1 && node.slots[0] instanceof Entry) {
+                return node.slots[0];
+            }
+        }
+        return trie;
+    }
+
+    private static Trie toTrie(Object slot, int shift) {
+        if (slot == null) {
+            return BitmapNode.EMPTY;
+        } else if (slot instanceof Entry) {
+            return BitmapNode.EMPTY.put((Entry) slot, shift);
+        }
+        return (Trie) slot;
+    }
+
+    private static int bitFor(int hash, int shift) {
+        return 1 << ((hash >>> shift) & MASK);
+    }
+
+    private static final class Entry {
+        final String key;
+        final int hash;
+        final AbstractValue value;
+
+        Entry(String key, AbstractValue value) {
+            this(key, key.hashCode(), value);
+        }
+
+        Entry(String key, int hash, AbstractValue value) {
+            this.key = key;
+            this.hash = hash;
+            this.value = value;
+        }
+
+        Entry join(AbstractValue other) {
+            AbstractValue joined = value.join(other);
+            return joined.equals(value) ? this : new Entry(key, hash, joined);
+        }
+    }
+
+    private interface Trie {
+        AbstractValue get(String key, int hash, int shift);
+
+        Trie put(Entry entry, int shift);
+
+        void forEach(Consumer<Entry> action);
+    }
+
+    private static final class BitmapNode implements Trie {
+        static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+        final int bitmap;
+        final Object[] slots;
+
+        BitmapNode(int bitmap, Object[] slots) {
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+
+        private int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        @Override
+        public AbstractValue get(String key, int hash, int shift) {
+            int bit = bitFor(hash, shift);
+            if ((bitmap & bit) == 0) {
+                return null;
+            }
+            Object slot = slots[index(bit)];
+            if (slot instanceof Entry) {
+                Entry entry = (Entry) slot;
+                return entry.key.equals(key) ? entry.value : null;
+            }
+            return ((Trie) slot).get(key, hash, shift + BITS);
+        }
+
+        @Override
+        public Trie put(Entry entry, int shift) {
+            int bit = bitFor(entry.hash, shift);
+            int index = index(bit);
+            if ((bitmap & bit) == 0) {
+                Object[] newSlots = new Object[slots.length + 1];
+                System.arraycopy(slots, 0, newSlots, 0, index);
+                newSlots[index] = entry;
+                System.arraycopy(slots, index, newSlots, index + 1, slots.length - index);
+                return new BitmapNode(bitmap | bit, newSlots);
+            }
+
+            Object slot = slots[index];
+            Object newSlot;
+            if (slot instanceof Entry) {
+                Entry existing = (Entry) slot;
+                if (existing.key.equals(entry.key)) {
+                    if (existing.value.equals(entry.value)) {
+                        return this;
+                    }
+                    newSlot = entry;
+                } else {
+                    newSlot = pair(existing, entry, shift + BITS);
+                }
+            } else {
+                Trie child = (Trie) slot;
+                newSlot = child.put(entry, shift + BITS);
+                if (newSlot == child) {
+                    return this;
+                }
+            }
+            Object[] newSlots = slots.clone();
+            newSlots[index] = newSlot;
+            return new BitmapNode(bitmap, newSlots);
+        }
+
+        /**
+         * Joins the slots both nodes have in common, returning this node itself if nothing changed.
+         */
+        Object join(BitmapNode other, int shift) {
+            int common = bitmap & other.bitmap;
+            List<Object> joinedSlots = new ArrayList<>(Integer.bitCount(common));
+            int joinedBitmap = 0;
+            boolean unchanged = common == bitmap;
+            for (int remaining = common; remaining != 0; remaining &= remaining - 1) {
+                int bit = remaining & -remaining;
+                Object slot = slots[index(bit)];
+                Object joined = VariableEnvironment.join(slot, other.slots[other.index(bit)], shift + BITS);
+                if (joined != slot) {
+                    unchanged = false;
+                }
+                if (joined != null) {
+                    joinedSlots.add(joined);
+                    joinedBitmap |= bit;
+                }
+            }
+            if (unchanged) {
+                return this;
+            }
+            return collapse(new BitmapNode(joinedBitmap, joinedSlots.toArray()));
+        }
+
+        @Override
+        public void forEach(Consumer<Entry> action) {
+            for (Object slot : slots) {
+                if (slot instanceof Entry) {
+                    action.accept((Entry) slot);
+                } else {
+                    ((Trie) slot).forEach(action);
+                }
+            }
+        }
+
+        private static Trie pair(Entry a, Entry b, int shift) {
+            if (a.hash == b.hash) {
+                return new CollisionNode(a.hash, new Entry[]{a, b});
+            }
+            int indexA = (a.hash >>> shift) & MASK;
+            int indexB = (b.hash >>> shift) & MASK;
+            if (indexA == indexB) {
+                return new BitmapNode(1 << indexA, new Object[]{pair(a, b, shift + BITS)});
+            }
+            return new BitmapNode((1 << indexA) | (1 << indexB), indexA < indexB ? new Object[]{a, b} : new Object[]{b, a});
+        }
+    }
+
+    /**
+     * Holds entries whose names have exactly the same hash code.
+     */
+    private static final class CollisionNode implements Trie {
+        final int hash;
+        final Entry[] entries;
+
+        CollisionNode(int hash, Entry[] entries) {
+            this.hash = hash;
+            this.entries = entries;
+        }
+
+        @Override
+        public AbstractValue get(String key, int hash, int shift) {
+            for (Entry entry : entries) {
+                if (entry.key.equals(key)) {
+                    return entry.value;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public Trie put(Entry entry, int shift) {
+            if (entry.hash != hash) {
+                // Push this node one level down so the new entry can branch off it
+                return new BitmapNode(bitFor(hash, shift), new Object[]{this}).put(entry, shift);
+            }
+            for (int i = 0; i < entries.length; i++) {
+                if (entries[i].key.equals(entry.key)) {
+                    if (entries[i].value.equals(entry.value)) {
+                        return this;
+                    }
+                    Entry[] newEntries = entries.clone();
+                    newEntries[i] = entry;
+                    return new CollisionNode(hash, newEntries);
+                }
+            }
+            Entry[] newEntries = new Entry[entries.length + 1];
+            System.arraycopy(entries, 0, newEntries, 0, entries.length);
+            newEntries[entries.length] = entry;
+            return new CollisionNode(hash, newEntries);
+        }
+
+        @Override
+        public void forEach(Consumer<Entry> action) {
+            for (Entry entry : entries) {
+                action.accept(entry);
+            }
+        }
+    }
+}
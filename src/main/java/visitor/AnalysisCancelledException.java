@@ -0,0 +1,21 @@
+package visitor;
+
+/**
+ * Thrown from inside a visitor to abandon an analysis that was cancelled or ran past its deadline.
+ */
+public class AnalysisCancelledException extends RuntimeException {
+
+    private final boolean deadlineExceeded;
+
+    public AnalysisCancelledException(String message, boolean deadlineExceeded) {
+        super(message);
+        this.deadlineExceeded = deadlineExceeded;
+    }
+
+    /**
+     * @return true if the deadline passed, false if the analysis was cancelled explicitly.
+     */
+    public boolean isDeadlineExceeded() {
+        return deadlineExceeded;
+    }
+}
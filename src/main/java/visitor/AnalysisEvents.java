@@ -0,0 +1,95 @@
+package visitor;
+
+import com.github.javaparser.Range;
+import com.github.javaparser.ast.Node;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder events emitted by {@link MethodVisitor}, so that a recording shows which constructs of an input
+ * were expensive to analyze. All of them are disabled unless a recording turns them on, e.g. with
+ * {@code -XX:StartFlightRecording:+visitor.IfVisit#enabled=true}; while disabled, the only cost left is the
+ * allocation of an event object that the JIT removes again.
+ */
+public final class AnalysisEvents {
+
+    private AnalysisEvents() {
+    }
+
+    /**
+     * One visit of a statement or call, including everything nested inside it and every method it inlines.
+     */
+    @Category({"Control Flow Graph", "Visitor"})
+    @Enabled(false)
+    @StackTrace(false)
+    public abstract static class VisitEvent extends Event {
+
+        @Label("Begin Line")
+        int beginLine;
+
+        @Label("End Line")
+        int endLine;
+
+        @Label("Depth")
+        @Description("Number of if, for, while, switch and call visits enclosing this one, across inlined calls")
+        int depth;
+
+        /**
+         * Ends the event and commits it if it is enabled and long enough. The node is only looked at in that case.
+         */
+        void end(Node node, int depth) {
+            end();
+            if (shouldCommit()) {
+                Range range = node.getRange().orElse(null);
+                this.beginLine = range == null ? -1 : range.begin.line;
+                this.endLine = range == null ? -1 : range.end.line;
+                this.depth = depth;
+                commit();
+            }
+        }
+    }
+
+    @Name("visitor.IfVisit")
+    @Label("If Visit")
+    public static class IfVisit extends VisitEvent {
+    }
+
+    @Name("visitor.ForVisit")
+    @Label("For Visit")
+    public static class ForVisit extends VisitEvent {
+    }
+
+    @Name("visitor.WhileVisit")
+    @Label("While Visit")
+    public static class WhileVisit extends VisitEvent {
+    }
+
+    @Name("visitor.SwitchVisit")
+    @Label("Switch Visit")
+    public static class SwitchVisit extends VisitEvent {
+    }
+
+    @Name("visitor.MethodCallVisit")
+    @Label("Method Call Visit")
+    public static class MethodCallVisit extends VisitEvent {
+    }
+
+    /**
+     * One evaluation of a condition by Symja, which only happens for conditions the constant folder could not decide.
+     */
+    @Name("visitor.SymjaEvaluation")
+    @Label("Symja Evaluation")
+    @Category({"Control Flow Graph", "Visitor"})
+    @Enabled(false)
+    @StackTrace(false)
+    public static class SymjaEvaluation extends Event {
+
+        @Label("Expression")
+        String expression;
+    }
+}
@@ -0,0 +1,68 @@
+package visitor;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lets a running analysis be stopped from another thread. The visitors call {@link #check()} each time they enter a
+ * node, so an analysis stops at the next visit once it is cancelled or past its deadline.
+ */
+public class Cancellation {
+
+    /**
+     * Never cancelled, for analyses without a deadline.
+     */
+    public static final Cancellation NONE = new Cancellation(Long.MAX_VALUE) {
+        @Override
+        public void cancel() {
+        }
+    };
+
+    private final long deadlineNanos;
+    private final long timeoutMillis;
+    private volatile boolean cancelled;
+
+    /**
+     * @param timeoutMillis - time from now after which the analysis is stopped.
+     */
+    public Cancellation(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+        // Saturate instead of overflowing for huge timeouts
+        long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        long now = System.nanoTime();
+        this.deadlineNanos = timeoutNanos > Long.MAX_VALUE - now ? Long.MAX_VALUE : now + timeoutNanos;
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public boolean isExpired() {
+        return deadlineNanos != Long.MAX_VALUE && System.nanoTime() - deadlineNanos > 0;
+    }
+
+    /**
+     * @return milliseconds left until the deadline, Long.MAX_VALUE if there is none.
+     */
+    public long remainingMillis() {
+        if (deadlineNanos == Long.MAX_VALUE) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime()));
+    }
+
+    /**
+     * @throws AnalysisCancelledException if the analysis was cancelled or its deadline has passed.
+     */
+    public void check() {
+        if (cancelled) {
+            throw new AnalysisCancelledException("Analysis was cancelled", false);
+        }
+        if (isExpired()) {
+            throw new AnalysisCancelledException("Analysis did not finish within " + timeoutMillis + " ms", true);
+        }
+    }
+}
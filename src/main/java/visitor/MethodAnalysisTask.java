@@ -0,0 +1,99 @@
+package visitor;
+
+import com.github.javaparser.ast.CompilationUnit;
+import com.github.javaparser.ast.body.ClassOrInterfaceDeclaration;
+import com.github.javaparser.ast.body.MethodDeclaration;
+import com.github.javaparser.ast.expr.LambdaExpr;
+import com.github.javaparser.ast.expr.ObjectCreationExpr;
+import graph.GraphNode;
+import graph.StateWrapper;
+import utils.StageTimings;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.Stack;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Analyzes one top-level method with a visitor of its own. Top-level methods never share visitor state, only the
+ * summaries of inlined calls, so every method of a compilation unit can run as a separate ForkJoin task.
+ */
+public class MethodAnalysisTask extends RecursiveTask<List<GraphNode>> {
+
+    private final MethodDeclaration method;
+    private final Set<MethodDeclaration> methodDeclarations;
+    private final Lock resolutionLock;
+    private final Cancellation cancellation;
+    private final StageTimings timings;
+    private final MethodSummary.Cache methodSummaries;
+
+    private MethodAnalysisTask(MethodDeclaration method, Set<MethodDeclaration> methodDeclarations,
+                               Lock resolutionLock, Cancellation cancellation, StageTimings timings,
+                               MethodSummary.Cache methodSummaries) {
+        this.method = method;
+        this.methodDeclarations = methodDeclarations;
+        this.resolutionLock = resolutionLock;
+        this.cancellation = cancellation;
+        this.timings = timings;
+        this.methodSummaries = methodSummaries;
+    }
+
+    public static void analyzeAll(CompilationUnit cu, Set<MethodDeclaration> methodDeclarations, StateWrapper state) {
+        analyzeAll(cu, methodDeclarations, state, Cancellation.NONE, new StageTimings());
+    }
+
+    /**
+     * Analyzes every top-level method of the compilation unit in parallel, adding their root nodes to the state in
+     * source order.
+     * @param cu
+     * @param methodDeclarations - methods that calls may be inlined into.
+     * @param state - receives the root nodes.
+     * @param cancellation - shared by all the tasks, so cancelling it stops every method.
+     * @param timings - shared by all the tasks.
+     * @throws AnalysisCancelledException if the analysis was cancelled before it finished.
+     */
+    public static void analyzeAll(CompilationUnit cu, Set<MethodDeclaration> methodDeclarations, StateWrapper state,
+                                  Cancellation cancellation, StageTimings timings) {
+        // The symbol solver caches are not thread safe, so all tasks on this compilation unit resolve one at a time.
+        // A Lock rather than synchronized, which would pin the carrier of a virtual thread while it waits
+        Lock resolutionLock = new ReentrantLock();
+        // A method called from several top-level methods is only visited once per set of arguments for the file
+        MethodSummary.Cache methodSummaries = new MethodSummary.Cache(methodDeclarations);
+        List<MethodAnalysisTask> tasks = new ArrayList<>();
+        for (MethodDeclaration md : cu.findAll(MethodDeclaration.class, MethodAnalysisTask::isTopLevel)) {
+            tasks.add(new MethodAnalysisTask(md, methodDeclarations, resolutionLock, cancellation, timings,
+                    methodSummaries));
+        }
+
+        if (tasks.size() == 1) {
+            state.rootNodes.addAll(tasks.get(0).compute());
+            return;
+        }
+        ForkJoinTask.invokeAll(tasks);
+        for (MethodAnalysisTask task : tasks) {
+            state.rootNodes.addAll(task.join());
+        }
+    }
+
+    /**
+     * Methods of local and anonymous classes are visited as part of the method that contains them.
+     */
+    private static boolean isTopLevel(MethodDeclaration md) {
+        return md.getParentNode().isPresent() && md.getParentNode().get() instanceof ClassOrInterfaceDeclaration
+                && md.findAncestor(MethodDeclaration.class).isEmpty()
+                && md.findAncestor(LambdaExpr.class).isEmpty()
+                && md.findAncestor(ObjectCreationExpr.class).isEmpty();
+    }
+
+    @Override
+    protected List<GraphNode> compute() {
+        StateWrapper state = new StateWrapper(new ArrayList<>(), new Stack<>());
+        new MethodVisitor(methodDeclarations, resolutionLock, cancellation, timings, methodSummaries)
+                .visit(method, state);
+        return state.rootNodes;
+    }
+}
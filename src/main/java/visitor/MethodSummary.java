@@ -0,0 +1,259 @@
+package visitor;
+
+import com.github.javaparser.ast.body.MethodDeclaration;
+import com.github.javaparser.ast.expr.MethodCallExpr;
+import com.github.javaparser.ast.stmt.*;
+import graph.BlockType;
+import graph.GraphEdge;
+import graph.GraphNode;
+import utils.AbstractValue;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Subgraph produced by inlining a call to a method, recorded so that later calls with the same abstract arguments can
+ * rebuild it (including which edges are dead) without visiting the method body again.
+ * <p>
+ * Every call gets a copy of the subgraph rather than a link to a shared one: the nodes the call leaves on the statement
+ * stack get edges to whatever follows the call, so call sites sharing them would flow into each other's successors.
+ */
+final class MethodSummary {
+
+    private final List<NodeTemplate> nodes;
+    private final List<TupleTemplate> tuples;
+    private final List<int[]> stackEntries; // Tuple indices of each statement stack entry left behind by the call
+
+    private MethodSummary(List<NodeTemplate> nodes, List<TupleTemplate> tuples, List<int[]> stackEntries) {
+        this.nodes = nodes;
+        this.tuples = tuples;
+        this.stackEntries = stackEntries;
+    }
+
+    /**
+     * Whether the subgraph of a method only depends on its arguments. A `continue` outside of any loop in the method
+     * links to the loop of the caller, so such methods are always visited again.
+     */
+    static boolean isCacheable(MethodDeclaration md) {
+        for (ContinueStmt cs : md.findAll(ContinueStmt.class)) {
+            if (cs.findAncestor(ForStmt.class).isEmpty() && cs.findAncestor(ForEachStmt.class).isEmpty()
+                    && cs.findAncestor(WhileStmt.class).isEmpty() && cs.findAncestor(DoStmt.class).isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Records the subgraph hanging off the method call node right after the method body was visited.
+     * @param entry - the method call node.
+     * @param stackEntries - statement stack entries the call pushed and left behind.
+     */
+    static MethodSummary capture(GraphNode entry, List<List<GraphNodeTuple>> stackEntries) {
+        Map<GraphNode, Integer> nodeIndices = new IdentityHashMap<>();
+        List<GraphNode> nodes = new ArrayList<>();
+        Map<GraphNodeTuple, Integer> tupleIndices = new IdentityHashMap<>();
+        List<TupleTemplate> tuples = new ArrayList<>();
+        List<int[]> entries = new ArrayList<>(stackEntries.size());
+
+        indexOf(entry, nodeIndices, nodes);
+        for (List<GraphNodeTuple> stackEntry : stackEntries) {
+            int[] entryTuples = new int[stackEntry.size()];
+            for (int i = 0; i < entryTuples.length; i++) {
+                GraphNodeTuple tuple = stackEntry.get(i);
+                Integer index = tupleIndices.get(tuple);
+                if (index == null) {
+                    index = tuples.size();
+                    tupleIndices.put(tuple, index);
+                    tuples.add(new TupleTemplate(indexOf(tuple.node, nodeIndices, nodes), tuple.textFromParentToChild,
+                            tuple.pathToChildIsDead));
+                }
+                entryTuples[i] = index;
+            }
+            entries.add(entryTuples);
+        }
+
+        // Nodes are appended while their edges are recorded, so this also walks everything reachable from them
+        List<NodeTemplate> templates = new ArrayList<>();
+        for (int i = 0; i < nodes.size(); i++) {
+            GraphNode node = nodes.get(i);
+            List<EdgeTemplate> edges = new ArrayList<>(node.edges.size());
+            for (GraphEdge edge : node.edges) {
+                edges.add(new EdgeTemplate(indexOf(edge.getNode(), nodeIndices, nodes), edge.label, edge.isDead));
+            }
+            templates.add(new NodeTemplate(node.blockType, node.text, edges));
+        }
+        return new MethodSummary(templates, tuples, entries);
+    }
+
+    /**
+     * Rebuilds the recorded subgraph under a new method call node.
+     * @param entry - the method call node, which must not have any edges yet.
+     * @return the statement stack entries to push, in order.
+     */
+    List<List<GraphNodeTuple>> instantiate(GraphNode entry) {
+        GraphNode[] created = new GraphNode[nodes.size()];
+        created[0] = entry;
+        for (int i = 1; i < created.length; i++) {
+            created[i] = new GraphNode(nodes.get(i).blockType, nodes.get(i).text);
+        }
+        for (int i = 0; i < created.length; i++) {
+            for (EdgeTemplate edge : nodes.get(i).edges) {
+                created[i].addEdge(new GraphEdge(created[edge.target], edge.label, edge.isDead));
+            }
+        }
+
+        // Tuples shared between entries stay shared, since the caller may still mark them as dead
+        GraphNodeTuple[] createdTuples = new GraphNodeTuple[tuples.size()];
+        for (int i = 0; i < createdTuples.length; i++) {
+            TupleTemplate tuple = tuples.get(i);
+            createdTuples[i] = new GraphNodeTuple(created[tuple.node], tuple.text, tuple.isDead);
+        }
+        List<List<GraphNodeTuple>> result = new ArrayList<>(stackEntries.size());
+        for (int[] entryTuples : stackEntries) {
+            List<GraphNodeTuple> stackEntry = new ArrayList<>(entryTuples.length);
+            for (int index : entryTuples) {
+                stackEntry.add(createdTuples[index]);
+            }
+            result.add(stackEntry);
+        }
+        return result;
+    }
+
+    private static int indexOf(GraphNode node, Map<GraphNode, Integer> nodeIndices, List<GraphNode> nodes) {
+        Integer index = nodeIndices.get(node);
+        if (index == null) {
+            index = nodes.size();
+            nodeIndices.put(node, index);
+            nodes.add(node);
+        }
+        return index;
+    }
+
+    /**
+     * Summaries of every method inlined while analyzing one compilation unit. Summaries never change once recorded, so
+     * one cache is shared by all the visitors analyzing the methods of a file in parallel.
+     */
+    static final class Cache {
+        private final Map<Key, MethodSummary> summaries = new ConcurrentHashMap<>();
+        private final Map<MethodDeclaration, Set<String>> callees = new ConcurrentHashMap<>();
+        private final Set<MethodDeclaration> methodDeclarations;
+
+        Cache(Set<MethodDeclaration> methodDeclarations) {
+            this.methodDeclarations = methodDeclarations;
+        }
+
+        MethodSummary get(Key key) {
+            return summaries.get(key);
+        }
+
+        void put(Key key, MethodSummary summary) {
+            summaries.putIfAbsent(key, summary);
+        }
+
+        /**
+         * Makes the key for a call. Of the methods already being inlined, only those the callee may reach matter,
+         * so that calls to the same method from different top-level methods share their summary.
+         */
+        Key keyOf(MethodDeclaration method, List<AbstractValue> arguments, boolean isDead, Set<String> activeMethods) {
+            Set<String> reachable = callees.computeIfAbsent(method, this::reachableCalls);
+            Set<String> relevant = new HashSet<>(activeMethods);
+            relevant.retainAll(reachable);
+            return new Key(method, arguments, isDead, relevant);
+        }
+
+        /**
+         * @return names of every method the given one calls, directly or through other methods of the file. Calls are
+         * matched by name, like the cycle check in the visitor, which errs on the side of too many.
+         */
+        private Set<String> reachableCalls(MethodDeclaration method) {
+            Set<String> names = new HashSet<>();
+            Set<MethodDeclaration> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+            Deque<MethodDeclaration> pending = new ArrayDeque<>();
+            pending.push(method);
+            visited.add(method);
+            while (!pending.isEmpty()) {
+                for (MethodCallExpr call : pending.pop().findAll(MethodCallExpr.class)) {
+                    String name = call.getNameAsString();
+                    if (names.add(name)) {
+                        for (MethodDeclaration md : methodDeclarations) {
+                            if (md.getNameAsString().equals(name) && visited.add(md)) {
+                                pending.push(md);
+                            }
+                        }
+                    }
+                }
+            }
+            return names;
+        }
+    }
+
+    /**
+     * Identifies an inlined call: the callee, the values of its arguments, whether the call itself is dead and which
+     * methods are already being inlined (those are not entered again).
+     */
+    static final class Key {
+        private final MethodDeclaration method;
+        private final List<AbstractValue> arguments;
+        private final boolean isDead;
+        private final Set<String> activeMethods;
+
+        Key(MethodDeclaration method, List<AbstractValue> arguments, boolean isDead, Set<String> activeMethods) {
+            this.method = method;
+            this.arguments = arguments;
+            this.isDead = isDead;
+            this.activeMethods = new HashSet<>(activeMethods);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            // Declarations compare by identity, structural equality would walk the whole method body
+            return method == key.method && isDead == key.isDead && arguments.equals(key.arguments)
+                    && activeMethods.equals(key.activeMethods);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(System.identityHashCode(method), arguments, isDead, activeMethods);
+        }
+    }
+
+    private static final class NodeTemplate {
+        final BlockType blockType;
+        final String text;
+        final List<EdgeTemplate> edges;
+
+        NodeTemplate(BlockType blockType, String text, List<EdgeTemplate> edges) {
+            this.blockType = blockType;
+            this.text = text;
+            this.edges = edges;
+        }
+    }
+
+    private static final class EdgeTemplate {
+        final int target;
+        final String label;
+        final Boolean isDead;
+
+        EdgeTemplate(int target, String label, Boolean isDead) {
+            this.target = target;
+            this.label = label;
+            this.isDead = isDead;
+        }
+    }
+
+    private static final class TupleTemplate {
+        final int node;
+        final String text;
+        final boolean isDead;
+
+        TupleTemplate(int node, String text, boolean isDead) {
+            this.node = node;
+            this.text = text;
+            this.isDead = isDead;
+        }
+    }
+}
@@ -4,44 +4,73 @@ import com.github.javaparser.ast.Node;
 import com.github.javaparser.ast.body.ClassOrInterfaceDeclaration;
 import com.github.javaparser.ast.body.MethodDeclaration;
 import com.github.javaparser.ast.expr.*;
+import com.github.javaparser.ast.nodeTypes.SwitchNode;
 import com.github.javaparser.ast.stmt.*;
+import com.github.javaparser.ast.type.Type;
 import com.github.javaparser.ast.visitor.VoidVisitorAdapter;
 import com.github.javaparser.resolution.UnsolvedSymbolException;
-import com.github.javaparser.resolution.declarations.ResolvedMethodDeclaration;
 import graph.*;
 
 import org.matheclipse.core.eval.ExprEvaluator;
+import org.matheclipse.core.expression.F;
 import org.matheclipse.core.interfaces.IExpr;
+import utils.AbstractValue;
+import utils.ConstantEvaluator;
 import utils.ParserUtil;
+import utils.StageTimings;
+import utils.SymjaTranslator;
+import utils.VariableEnvironment;
 
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
 
 public class MethodVisitor extends VoidVisitorAdapter<StateWrapper> {
 
     private final Set<MethodDeclaration> methodDeclarations;
+    private final Lock resolutionLock;
+    private final Cancellation cancellation;
+    private final StageTimings timings;
     private Stack<List<GraphNodeTuple>> statementStack;
-    private Stack<ExprEvaluator> variableStack;
-    private Stack<Set<String>> variableNameStack; // Used to keep track of the variables available, so we can clone the variable state
+    private Stack<VariableEnvironment> variableStack; // Environments are immutable, so snapshots are just references
+    private ExprEvaluator symja; // Only created once a condition needs the Symja fallback
     private Map<String, GraphNode> cyclicMethodCallMap;
-
-    private final String symjaVariablePrefix = "_"; // TODO: There are reserved keywords in Symja (like sum, length, underscores (USE camelCase) so do not use in a variable name at all)
+    private final MethodSummary.Cache methodSummaries; // Inlined calls seen so far in this file
+    private int nestingDepth; // If, for, while, switch and call visits currently on the Java stack
 
     // Space in between words so that it prevents overlapping with any user
     // defined variable names.
     private final String continueCalledStringName = "continue called";
 
     public MethodVisitor(Set<MethodDeclaration> methodDeclarations) {
+        this(methodDeclarations, new ReentrantLock(), Cancellation.NONE, new StageTimings(),
+                new MethodSummary.Cache(methodDeclarations));
+    }
+
+    /**
+     * @param resolutionLock - held while resolving method calls, shared by visitors running on the same compilation
+     *                         unit in parallel.
+     * @param cancellation - checked at the start of every visit, stops the analysis by throwing
+     *                       {@link AnalysisCancelledException}.
+     * @param timings - receives the time spent resolving calls and evaluating with Symja.
+     * @param methodSummaries - shared by visitors running on the same compilation unit in parallel.
+     */
+    MethodVisitor(Set<MethodDeclaration> methodDeclarations, Lock resolutionLock, Cancellation cancellation,
+                  StageTimings timings, MethodSummary.Cache methodSummaries) {
         this.methodDeclarations = methodDeclarations;
+        this.resolutionLock = resolutionLock;
+        this.cancellation = cancellation;
+        this.timings = timings;
         this.statementStack = new Stack<>();
         this.variableStack = new Stack<>();
-        this.variableNameStack = new Stack<>();
         this.cyclicMethodCallMap = new HashMap<>();
+        this.methodSummaries = methodSummaries;
     }
 
     @Override
     public void visit(MethodDeclaration md, StateWrapper arg) {
+        cancellation.check();
         String paramString = ParserUtil.parseParameterListToString(md.getParameters());
         GraphNode graphNode = new GraphNode(BlockType.METHOD_DECL, md.getName().asString() + paramString);
 
@@ -49,7 +78,6 @@ public class MethodVisitor extends VoidVisitorAdapter<StateWrapper> {
         if (md.getParentNode().isPresent() && md.getParentNode().get() instanceof ClassOrInterfaceDeclaration) {
             this.statementStack.clear();
             this.variableStack.clear();
-            this.variableNameStack.clear();
             arg.rootNodes.add(graphNode);
             this.cyclicMethodCallMap.clear();
             this.cyclicMethodCallMap.put(md.getName().asString(), graphNode);
@@ -57,16 +85,27 @@ public class MethodVisitor extends VoidVisitorAdapter<StateWrapper> {
 
         boolean areAllIncomingPathsDead = areAllIncomingPathsDead();
         this.statementStack.add(Arrays.asList(new GraphNodeTuple(graphNode, areAllIncomingPathsDead)));
-        this.variableStack.add(new ExprEvaluator());
-        this.variableNameStack.add(new HashSet<>());
+        this.variableStack.add(VariableEnvironment.EMPTY);
         super.visit(md, arg);
-        this.variableNameStack.pop();
         this.variableStack.pop();
         this.statementStack.pop();
     }
 
     @Override
     public void visit(MethodCallExpr mce, StateWrapper arg) {
+        AnalysisEvents.MethodCallVisit event = new AnalysisEvents.MethodCallVisit();
+        event.begin();
+        this.nestingDepth++;
+        try {
+            visitMethodCall(mce, arg);
+        } finally {
+            this.nestingDepth--;
+            event.end(mce, this.nestingDepth);
+        }
+    }
+
+    private void visitMethodCall(MethodCallExpr mce, StateWrapper arg) {
+        cancellation.check();
         // Connect this to the previous statement
         List<GraphNodeTuple> parents = this.statementStack.peek();
         GraphNode child = new GraphNode(BlockType.METHOD_CALL, mce.toString());
@@ -81,21 +120,44 @@ public class MethodVisitor extends VoidVisitorAdapter<StateWrapper> {
         try {
             // Resolve the method being called - will only go into the method if it is a
             // top-level declaration in the given file
-            ResolvedMethodDeclaration resolvedMethod = mce.resolve();
-            Optional<Node> methodDeclarationNode = resolvedMethod.toAst();
+            Optional<Node> methodDeclarationNode;
+            this.resolutionLock.lock();
+            try {
+                long resolveStart = System.nanoTime();
+                try {
+                    methodDeclarationNode = mce.resolve().toAst();
+                } finally {
+                    timings.end(StageTimings.Stage.RESOLVE, resolveStart);
+                }
+            } finally {
+                this.resolutionLock.unlock();
+            }
             if (methodDeclarationNode.isPresent() && methodDeclarationNode.get() instanceof MethodDeclaration) {
                 MethodDeclaration md = (MethodDeclaration) methodDeclarationNode.get();
                 if (this.methodDeclarations.contains(md)) {
                     if (!this.cyclicMethodCallMap.containsKey(md.getName().asString())) {
                         // Do not try to go into cyclic calls
+                        List<AbstractValue> arguments = new ArrayList<>(mce.getArguments().size());
+                        for (Expression argument : mce.getArguments()) {
+                            arguments.add(evaluateExpression(VariableEnvironment.EMPTY, argument));
+                        }
+
+                        // Same method with the same arguments, reuse the subgraph from the previous visit
+                        MethodSummary.Key summaryKey = this.methodSummaries.keyOf(md, arguments,
+                                areAllIncomingPathsDead, this.cyclicMethodCallMap.keySet());
+                        MethodSummary summary = this.methodSummaries.get(summaryKey);
+                        if (summary != null) {
+                            this.statementStack.addAll(summary.instantiate(child));
+                            return;
+                        }
+
                         // Create new symbol table/evaluator. TODO: need to modify this if we want to support class level
-                        ExprEvaluator util = new ExprEvaluator();
                         this.cyclicMethodCallMap.put(md.getName().asString(), child);
 
-                        Set<String> declParams = ParserUtil.processParameters(md.getParameters(), mce.getArguments(), util);
+                        VariableEnvironment declParams = ParserUtil.processParameters(md.getParameters(), arguments);
+                        int stackSizeBeforeCall = this.statementStack.size();
                         this.statementStack.add(Arrays.asList(new GraphNodeTuple(child, areAllIncomingPathsDead)));
-                        this.variableStack.add(util);
-                        this.variableNameStack.add(declParams);
+                        this.variableStack.add(declParams);
                         super.visit(md, arg);
                         this.cyclicMethodCallMap.remove(md.getName().asString());
 
@@ -103,7 +165,11 @@ public class MethodVisitor extends VoidVisitorAdapter<StateWrapper> {
                         // TODO: need to pop stack here?
                         this.statementStack.pop();
                         this.variableStack.pop();
-                        this.variableNameStack.pop();
+
+                        if (MethodSummary.isCacheable(md)) {
+                            this.methodSummaries.put(summaryKey, MethodSummary.capture(child,
+                                    this.statementStack.subList(stackSizeBeforeCall, this.statementStack.size())));
+                        }
                         return;
                     }
                 }
@@ -117,6 +183,19 @@ public class MethodVisitor extends VoidVisitorAdapter<StateWrapper> {
 
     @Override
     public void visit(IfStmt is, StateWrapper arg) {
+        AnalysisEvents.IfVisit event = new AnalysisEvents.IfVisit();
+        event.begin();
+        this.nestingDepth++;
+        try {
+            visitIf(is, arg);
+        } finally {
+            this.nestingDepth--;
+            event.end(is, this.nestingDepth);
+        }
+    }
+
+    private void visitIf(IfStmt is, StateWrapper arg) {
+        cancellation.check();
         // Connect this statement to previous statement(s)
         List<GraphNodeTuple> parents = this.statementStack.peek();
         GraphNode conditional = new GraphNode(BlockType.IF, "if (" + is.getCondition().toString() + ")");
@@ -126,15 +205,13 @@ public class MethodVisitor extends VoidVisitorAdapter<StateWrapper> {
         }
 
         // Keep a copy of the stack prior to visiting any branch conditions
-        ExprEvaluator util = this.variableStack.peek();
         boolean isDeadBeforeConditionals = areAllIncomingPathsDead();
-        ExprEvaluator evaluatorBeforeConditionals = deepcopyEvaluator();
-        Set<String> variablesBeforeConditionals = deepcopyVariableNames();
+        VariableEnvironment evaluatorBeforeConditionals = this.variableStack.peek();
 
         // A result of "False" means that the ELSE branch is taken
         boolean thenBranchIsDead = isDeadBeforeConditionals;
-        IExpr conditionalResult = evaluateSymjaExpression(util, is.getCondition().toString());
-        if (isDeadBeforeConditionals || Objects.equals(conditionalResult.toString(), "False")) {
+        AbstractValue conditionalResult = evaluateExpression(evaluatorBeforeConditionals, is.getCondition());
+        if (isDeadBeforeConditionals || conditionalResult.isFalse()) {
             thenBranchIsDead = true;
         }
 
@@ -143,9 +220,8 @@ public class MethodVisitor extends VoidVisitorAdapter<StateWrapper> {
         this.statementStack.add(thenCondition);
         is.getThenStmt().accept(this, arg); // Visit the IF block
 
-        // Copy the evaluator after evaluating the THEN branch
-        ExprEvaluator evaluatorAfterThenBranch = deepcopyEvaluator();
-        Set<String> variablesAfterThenBranch = deepcopyVariableNames();
+        // Snapshot the evaluator after evaluating the THEN branch
+        VariableEnvironment evaluatorAfterThenBranch = this.variableStack.peek();
 
         // Grab the last statement executed in the if block
         List<GraphNodeTuple> lastStatements = new ArrayList<>(statementStack.peek());
@@ -157,17 +233,14 @@ public class MethodVisitor extends VoidVisitorAdapter<StateWrapper> {
 
         // A result of "True" means that the THEN branch is taken
         boolean elseBranchIsDead = isDeadBeforeConditionals;
-        if (isDeadBeforeConditionals || Objects.equals(conditionalResult.toString(), "True")) {
+        if (isDeadBeforeConditionals || conditionalResult.isTrue()) {
             elseBranchIsDead = true;
         }
         List<GraphNodeTuple> elseCondition = Arrays.asList(new GraphNodeTuple(conditional, "else", elseBranchIsDead));
         this.statementStack.add(elseCondition);
 
         // Replace the stack with the one prior to visiting any conditions
-        this.variableStack.pop();
-        this.variableNameStack.pop();
-        this.variableStack.add(evaluatorBeforeConditionals);
-        this.variableNameStack.add(variablesBeforeConditionals);
+        setEnvironment(evaluatorBeforeConditionals);
 
         Optional<Statement> elseStmt = is.getElseStmt();
         if (elseStmt.isPresent()) {
@@ -178,21 +251,18 @@ public class MethodVisitor extends VoidVisitorAdapter<StateWrapper> {
             lastStatements.add(new GraphNodeTuple(conditional, "else", isDeadBeforeConditionals));
         }
 
-        // Copy the evaluator after evaluating the ELSE branch
-        ExprEvaluator evaluatorAfterElseBranch = deepcopyEvaluator();
-        Set<String> variablesAfterElseBranch = deepcopyVariableNames();
+        // Snapshot the evaluator after evaluating the ELSE branch
+        VariableEnvironment evaluatorAfterElseBranch = this.variableStack.peek();
 
 
         // TODO:
         // If continue called = true in an eval branch (Either IF/ELSE) and we know that the branch is run
         // FOR SURE (eg. thenBranchDead && !elseBranchDead = we ran else branch for sure), if continue called is
         // true in else branch, all children after conditional = dead.
-        IExpr ccInThen = evaluatorAfterThenBranch.getVariable(continueCalledStringName);
-        IExpr ccInElse = evaluatorAfterElseBranch.getVariable(continueCalledStringName);
-        boolean ccRanInThen =
-                !thenBranchIsDead && elseBranchIsDead && ccInThen != null && ccInThen.toString().equals("True");
-        boolean ccRanInElse =
-                thenBranchIsDead && !elseBranchIsDead && ccInElse != null && ccInElse.toString().equals("True");
+        AbstractValue ccInThen = evaluatorAfterThenBranch.apply(continueCalledStringName);
+        AbstractValue ccInElse = evaluatorAfterElseBranch.apply(continueCalledStringName);
+        boolean ccRanInThen = !thenBranchIsDead && elseBranchIsDead && ccInThen.isTrue();
+        boolean ccRanInElse = thenBranchIsDead && !elseBranchIsDead && ccInElse.isTrue();
         if (ccRanInThen || ccRanInElse) {
             // Continue called in ran THEN branch.
             // Set all lastStatements children to be dead?? TODO: if in affected loop
@@ -202,114 +272,64 @@ public class MethodVisitor extends VoidVisitorAdapter<StateWrapper> {
         }
 
         // Reconcile the stack of the variable evaluator
-        ExprEvaluator reconciledEvaluator = reconcileEvaluator(variablesAfterElseBranch, evaluatorAfterElseBranch,
-                variablesAfterThenBranch, evaluatorAfterThenBranch, elseBranchIsDead, thenBranchIsDead);
+        VariableEnvironment reconciledEvaluator = reconcileEvaluator(evaluatorAfterElseBranch,
+                evaluatorAfterThenBranch, elseBranchIsDead, thenBranchIsDead);
 
 
         // Reset state of 'continue called' TODO: maybe need to do this at loop level and not in IF.
         // reconciledEvaluator.defineVariable(continueCalledStringName, false);
 
-        this.variableStack.pop();
-        this.variableStack.add(reconciledEvaluator);
+        setEnvironment(reconciledEvaluator);
 
         lastStatements.removeIf(gnt -> gnt.node.blockType == BlockType.RETURN);
         // Now both the terminal statements of this conditional block will connect to the next node
         this.statementStack.add(lastStatements);
     }
 
-    private IExpr evaluateSymjaExpression(ExprEvaluator util, String expression) {
-        expression = replaceStringLength(expression);
-        expression = replaceStringEquals(expression);
-        expression = replaceModSymbolExpr(expression);
-        expression = replaceArrayLength(util, expression);
-        return util.eval(expression);
-    }
-
-    private String replaceStringLength(String expression) {
-        /** Start Code Generated by [ChatGPT] on [April 4, 2024] */
-        // Symja does have a way evaluate the length of a string; however, we need to change the syntax:
-        //  some_string.length() -> StringLength(some_string)
-        String regex = "(.*)\\.length\\(\\)";
-        String replacement = "StringLength($1)";
-
-        Pattern pattern = Pattern.compile(regex);
-        Matcher match = pattern.matcher(expression);
-
-        if (match.find()) {
-            String result = expression.replaceFirst(regex, replacement);
-            return result;
+    private AbstractValue evaluateExpression(VariableEnvironment environment, Expression expression) {
+        AbstractValue result = ConstantEvaluator.evaluate(expression, environment);
+        if (result.isUnknown() && ConstantEvaluator.benefitsFromSymja(expression)) {
+            // Only pay for Symja when it may still simplify what the constant folder could not
+            result = AbstractValue.fromSymja(evalSymja(SymjaTranslator.translate(expression, environment)));
         }
-
-        return expression;
-        /** End Code Generated by [ChatGPT] on [April 4, 2024] */
+        return result;
     }
 
-    private String replaceStringEquals(String expression) {
-        /** Start Code Generated by [ChatGPT] on [April 4, 2024] */
-        // Symja does have a way evaluate the length of a string; however, we need to change the syntax:
-        //  X.equals("TEST")
-        String regex = "(.*?)\\.equals\\(\"(.*?)\"\\)";
-        String replacement = "$1 == \"$2\"";
-
-        Pattern pattern = Pattern.compile(regex);
-        Matcher match = pattern.matcher(expression);
-
-        if (match.find()) {
-            String result = expression.replaceFirst(regex, replacement);
-            return result;
+    private IExpr evalSymja(IExpr expression) {
+        AnalysisEvents.SymjaEvaluation event = new AnalysisEvents.SymjaEvaluation();
+        event.begin();
+        long symjaStart = System.nanoTime();
+        try {
+            return getSymja().eval(expression);
+        } finally {
+            timings.end(StageTimings.Stage.SYMJA, symjaStart);
+            event.end();
+            if (event.shouldCommit()) {
+                event.expression = expression.toString();
+                event.commit();
+            }
         }
-
-        return expression;
-        /** End Code Generated by [ChatGPT] on [April 4, 2024] */
     }
 
-    private String replaceArrayLength(ExprEvaluator util, String expression) {
-        /** Start Code Generated by [ChatGPT] on [April 4, 2024] */
-        // Symja does have a way evaluate the length of an array; however, we need to change the syntax:
-        //  some_array.size() -> Length(some_array)
-
-        String regex = "(.*)\\.length";
-        String replacement = "Length($1)";
-
-        Pattern pattern = Pattern.compile(regex);
-        Matcher match = pattern.matcher(expression);
-
-        if (match.find()) {
-            String arrVariable = match.group(1);
-            IExpr result = util.getVariable(arrVariable);
-            if (result == null) {
-                // For symbolic arrays, Symja always returns a length of 0 - we don't want this, so just return the variable name instead
-                return arrVariable;
-            }
-
-            return expression.replaceFirst(regex, replacement);
+    private ExprEvaluator getSymja() {
+        if (this.symja == null) {
+            this.symja = new ExprEvaluator();
         }
-
-        return expression;
-        /** End Code Generated by [ChatGPT] on [April 4, 2024] */
+        return this.symja;
     }
-    private String replaceModSymbolExpr(String expression) {
-        expression = expression.trim();
-        /** Start Code Generated by [ChatGPT] on [April 7, 2024] */
-        String regex = "\\b(\\w+)\\s*%\\s*(\\w+)\\b";
-        /** End Code Generated by [ChatGPT] on [April 7, 2024] */
 
-        String replacement = "Mod($1, $2)";
-
-        Pattern pattern = Pattern.compile(regex);
-        Matcher match = pattern.matcher(expression);
-
-        if (match.find()) {
-            String result = expression.replaceFirst(regex, replacement);
-            return result;
-        }
+    private void defineVariable(String variable, AbstractValue value) {
+        setEnvironment(this.variableStack.peek().with(variable, value));
+    }
 
-        return expression;
+    private void setEnvironment(VariableEnvironment environment) {
+        this.variableStack.set(this.variableStack.size() - 1, environment);
     }
 
 
     @Override
     public void visit(VariableDeclarationExpr vde, StateWrapper arg) {
+        cancellation.check();
         // TODO: Figure out a more elegant way to omit double processing these
         // Inside the for loop we declare `int i = 0`, without this guard we end up double printing
         if (!(vde.getParentNode().isPresent() && (vde.getParentNode().get() instanceof ForStmt || vde.getParentNode().get() instanceof ForEachStmt))) {
@@ -327,12 +347,9 @@ public class MethodVisitor extends VoidVisitorAdapter<StateWrapper> {
 
             // Add this variable to our evaluator state
             String variable = vde.getVariables().get(0).getNameAsString();
-            String value = vde.getVariables().get(0).getInitializer().get().toString();
-            ExprEvaluator evaluator = this.variableStack.peek();
-            IExpr result = evaluateSymjaExpression(evaluator, value);
-            evaluator.defineVariable(variable, result);
-
-            this.variableNameStack.peek().add(variable);
+            Expression value = vde.getVariables().get(0).getInitializer().get();
+            AbstractValue result = evaluateExpression(this.variableStack.peek(), value);
+            defineVariable(variable, ConstantEvaluator.forDeclaredType(vde.getVariables().get(0).getType(), result));
         }
 
         super.visit(vde, arg);
@@ -340,6 +357,7 @@ public class MethodVisitor extends VoidVisitorAdapter<StateWrapper> {
 
     @Override
     public void visit(AssignExpr ae, StateWrapper arg) {
+        cancellation.check();
         // Link this node to parent(s)
         List<GraphNodeTuple> parents = this.statementStack.peek();
         GraphNode child = new GraphNode(BlockType.STMT, ae.toString());
@@ -354,18 +372,24 @@ public class MethodVisitor extends VoidVisitorAdapter<StateWrapper> {
 
         // Modify this variable in our evaluator state
         String variable = ae.getTarget().toString();
-        String value = ae.getValue().toString();
-        ExprEvaluator evaluator = this.variableStack.peek();
-        IExpr result = evaluateSymjaExpression(evaluator, value);
-        evaluator.defineVariable(variable, result);
-
-        this.variableNameStack.peek().add(variable);
+        Expression value = ae.getValue();
+        AbstractValue result = evaluateExpression(this.variableStack.peek(), value);
+        // Only a constant can be folded with the wrong type, so only then look up the declaration
+        if (ae.getTarget().isNameExpr() && (result.getKind() == AbstractValue.Kind.INT
+                || result.getKind() == AbstractValue.Kind.ARRAY)) {
+            Optional<Type> type = ParserUtil.declaredType(ae, variable);
+            if (type.isPresent()) {
+                result = ConstantEvaluator.forDeclaredType(type.get(), result);
+            }
+        }
+        defineVariable(variable, result);
 
         super.visit(ae, arg);
     }
 
     @Override
     public void visit(ForEachStmt fes, StateWrapper arg) {
+        cancellation.check();
 
         VariableDeclarationExpr initialization = (VariableDeclarationExpr) fes.getVariable();
         NameExpr iterable = (NameExpr) fes.getIterable();
@@ -387,8 +411,7 @@ public class MethodVisitor extends VoidVisitorAdapter<StateWrapper> {
         iteratorStmt.addEdge(iteratorConditional);
 
         // Save a copy of the evaluator prior to all the loop statements
-        ExprEvaluator evaluatorBeforeLoop = deepcopyEvaluator();
-        Set<String> variablesBeforeLoop = deepcopyVariableNames();
+        VariableEnvironment evaluatorBeforeLoop = this.variableStack.peek();
         this.statementStack.add(Arrays.asList(new GraphNodeTuple(conditionalStmt, "then", areAllIncomingPathsDead)));
 
         GraphNode nextStmt = new GraphNode(BlockType.STMT, "iterator.next()");
@@ -397,15 +420,10 @@ public class MethodVisitor extends VoidVisitorAdapter<StateWrapper> {
         arg.loopStates.pop();
 
         // Reconcile evaluator after all the loop statements
-        ExprEvaluator evaluatorAfterLoop = this.variableStack.peek();
-        Set<String> variablesAfterLoop = this.variableNameStack.peek();
-        ExprEvaluator reconciledEvaluator = reconcileEvaluator(variablesAfterLoop, evaluatorAfterLoop,
-                variablesBeforeLoop, evaluatorBeforeLoop);
+        VariableEnvironment evaluatorAfterLoop = this.variableStack.peek();
+        VariableEnvironment reconciledEvaluator = evaluatorAfterLoop.join(evaluatorBeforeLoop);
 
-        this.variableStack.pop();
-        this.variableStack.add(reconciledEvaluator);
-
-        ResetContinueVariableAfterLoop(reconciledEvaluator);
+        setEnvironment(ResetContinueVariableAfterLoop(reconciledEvaluator));
 
         GraphNode lastStatementInForLoop = this.statementStack.peek().get(0).node;
 
@@ -422,6 +440,19 @@ public class MethodVisitor extends VoidVisitorAdapter<StateWrapper> {
 
     @Override
     public void visit(ForStmt fs, StateWrapper arg) {
+        AnalysisEvents.ForVisit event = new AnalysisEvents.ForVisit();
+        event.begin();
+        this.nestingDepth++;
+        try {
+            visitFor(fs, arg);
+        } finally {
+            this.nestingDepth--;
+            event.end(fs, this.nestingDepth);
+        }
+    }
+
+    private void visitFor(ForStmt fs, StateWrapper arg) {
+        cancellation.check();
         List<GraphNodeTuple> parents = this.statementStack.peek();
 
         // eg. int i = 0;
@@ -453,8 +484,7 @@ public class MethodVisitor extends VoidVisitorAdapter<StateWrapper> {
         forLoopStmt.addEdge(new GraphEdge(conditionalStmt, "", areAllIncomingPathsDead));
 
         // Save a copy of the evaluator prior to all the loop statements
-        ExprEvaluator evaluatorBeforeLoop = deepcopyEvaluator();
-        Set<String> variablesBeforeLoop = deepcopyVariableNames();
+        VariableEnvironment evaluatorBeforeLoop = this.variableStack.peek();
 
 
         // Set [i < 8] as parent node of first body node. Visit Body.
@@ -467,15 +497,10 @@ public class MethodVisitor extends VoidVisitorAdapter<StateWrapper> {
         arg.loopStates.pop();
 
         // Reconcile evaluator after all the loop statements
-        ExprEvaluator evaluatorAfterLoop = this.variableStack.peek();
-        Set<String> variablesAfterLoop = this.variableNameStack.peek();
-        ExprEvaluator reconciledEvaluator = reconcileEvaluator(variablesAfterLoop, evaluatorAfterLoop,
-                variablesBeforeLoop, evaluatorBeforeLoop);
+        VariableEnvironment evaluatorAfterLoop = this.variableStack.peek();
+        VariableEnvironment reconciledEvaluator = evaluatorAfterLoop.join(evaluatorBeforeLoop);
 
-        this.variableStack.pop();
-        this.variableStack.add(reconciledEvaluator);
-
-        ResetContinueVariableAfterLoop(reconciledEvaluator);
+        setEnvironment(ResetContinueVariableAfterLoop(reconciledEvaluator));
 
 
         // Last node statement from for loop body. eg: int x = i;
@@ -494,6 +519,19 @@ public class MethodVisitor extends VoidVisitorAdapter<StateWrapper> {
 
     @Override
     public void visit(SwitchStmt ss, StateWrapper arg) {
+        AnalysisEvents.SwitchVisit event = new AnalysisEvents.SwitchVisit();
+        event.begin();
+        this.nestingDepth++;
+        try {
+            visitSwitch(ss, arg);
+        } finally {
+            this.nestingDepth--;
+            event.end(ss, this.nestingDepth);
+        }
+    }
+
+    private void visitSwitch(SwitchStmt ss, StateWrapper arg) {
+        cancellation.check();
         List<GraphNodeTuple> parents = this.statementStack.peek();
         GraphNode selector = new GraphNode(BlockType.SWITCH, "switch(" +ss.getSelector().toString() + ")");
         for (GraphNodeTuple parent: parents) {
@@ -501,10 +539,8 @@ public class MethodVisitor extends VoidVisitorAdapter<StateWrapper> {
             parent.node.addEdge(parentSelector);
         }
 
-        ExprEvaluator evaluatorBeforeSwitch = deepcopyEvaluator();
-        Set<String> variablesBeforeSwitch = deepcopyVariableNames();
-        ExprEvaluator evaluatorAfterCase = deepcopyEvaluator();
-        Set<String> variablesAfterCase = deepcopyVariableNames();
+        VariableEnvironment evaluatorBeforeSwitch = this.variableStack.peek();
+        VariableEnvironment evaluatorAfterCase;
 
         boolean isDeadBefore = areAllIncomingPathsDead();
         List<GraphNodeTuple> selectorL = Arrays.asList(new GraphNodeTuple(selector,
@@ -521,33 +557,23 @@ public class MethodVisitor extends VoidVisitorAdapter<StateWrapper> {
             se.accept(this, arg);
             parent.clear();
             evaluatorAfterCase = this.variableStack.pop();
-            variablesAfterCase = this.variableNameStack.pop();
             for (GraphNodeTuple gnt : this.statementStack.pop()) {
                 if (gnt.node.blockType == BlockType.BREAK) {
                     lastStatements.add(gnt);
                     this.variableStack.add(evaluatorBeforeSwitch);
-                    this.variableNameStack.add(variablesBeforeSwitch);
                 } else {
                     if (gnt.node.blockType != BlockType.RETURN) {
                         parent.add(gnt);
                         this.variableStack.add(evaluatorAfterCase);
-                        this.variableNameStack.add(variablesAfterCase);
                     } else {
                         this.variableStack.add(evaluatorBeforeSwitch);
-                        this.variableNameStack.add(variablesBeforeSwitch);
                     }
                 }
             }
         }
 
         this.variableStack.pop();
-        this.variableNameStack.pop();
-        ExprEvaluator symbolic = new ExprEvaluator();
-        for (String var : variablesBeforeSwitch) {
-            symbolic.defineVariable(var);
-        }
-        this.variableStack.add(symbolic);
-        this.variableNameStack.add(variablesBeforeSwitch);
+        this.variableStack.add(evaluatorBeforeSwitch.withAllUnknown());
 
         lastStatements.addAll(this.statementStack.peek());
         lastStatements.removeIf(gnt -> gnt.node.blockType == BlockType.RETURN);
@@ -556,32 +582,64 @@ public class MethodVisitor extends VoidVisitorAdapter<StateWrapper> {
 
     @Override
     public void visit(SwitchEntry se, StateWrapper arg) {
-        int setLabel = 1 + se.getLabels().size();
+        cancellation.check();
+        boolean setLabel = true;
         List<GraphNodeTuple> parents = this.statementStack.peek();
-        ExprEvaluator util = this.variableStack.peek();
-        IExpr result;
-        if (setLabel > 1) {
-            result = evaluateSymjaExpression(util, "(" + parents.get(parents.size() - 1).textFromParentToChild + ") == " + se.getLabels().get(0).toString());
-        } else {
-            result = evaluateSymjaExpression(util, "true");
-        }
-        boolean isDead = parents.get(0).pathToChildIsDead || Objects.equals(result.toString(), "False");
+        AbstractValue result = se.getLabels().isEmpty() ? AbstractValue.TRUE : evaluateSwitchEntry(se);
+        String edgeLabel = se.getLabels().isEmpty() ? "default" : "case " + se.getLabels().stream()
+                .map(Expression::toString).collect(Collectors.joining(", "));
+        boolean isDead = parents.get(0).pathToChildIsDead || result.isFalse();
         for(Statement s: se.getStatements()) {
+            List<GraphEdge> edges = parents.get(0).node.edges;
+            int edgesBefore = edges.size();
             s.accept(this, arg);
-            if (setLabel > 1) {
-                List<GraphEdge> edges = parents.get(0).node.edges;
+            // Entries of a switch expression have no edge of their own from the selector to label
+            if (setLabel && edges.size() > edgesBefore) {
                 GraphEdge edge = edges.get(edges.size() - 1);
-                edge.label = "case " + se.getLabels().get(0).toString();
-                edge.isDead = isDead;
-            } else if (setLabel == 1) {
-                parents.get(0).node.edges.get(parents.get(0).node.edges.size() - 1).label = "default";
+                edge.label = edgeLabel;
+                if (!se.getLabels().isEmpty()) {
+                    edge.isDead = isDead;
+                }
+                setLabel = false;
             }
-            setLabel = 0;
         }
     }
 
+    /**
+     * @return whether the selector of the enclosing switch statement or expression matches any label of the entry:
+     * true if one label surely matches, false if none can, unknown otherwise.
+     */
+    private AbstractValue evaluateSwitchEntry(SwitchEntry se) {
+        Optional<Expression> selector = se.getParentNode()
+                .filter(SwitchNode.class::isInstance)
+                .map(parent -> ((SwitchNode) parent).getSelector());
+        if (selector.isEmpty()) {
+            return AbstractValue.UNKNOWN;
+        }
+        VariableEnvironment environment = this.variableStack.peek();
+        AbstractValue selectorValue = evaluateExpression(environment, selector.get());
+        boolean allFalse = true;
+        for (Expression label : se.getLabels()) {
+            AbstractValue labelValue = evaluateExpression(environment, label);
+            AbstractValue matches;
+            if (selectorValue.isConstant() && labelValue.isConstant()) {
+                matches = AbstractValue.ofBoolean(selectorValue.equals(labelValue));
+            } else {
+                matches = AbstractValue.fromSymja(evalSymja(F.Equal(
+                        SymjaTranslator.translate(selector.get(), environment),
+                        SymjaTranslator.translate(label, environment))));
+            }
+            if (matches.isTrue()) {
+                return AbstractValue.TRUE;
+            }
+            allFalse &= matches.isFalse();
+        }
+        return allFalse ? AbstractValue.FALSE : AbstractValue.UNKNOWN;
+    }
+
     @Override
     public void visit(BreakStmt bs, StateWrapper arg) {
+        cancellation.check();
         GraphNode breakNode = new GraphNode(BlockType.BREAK, "break");
         for (GraphNodeTuple gnt : this.statementStack.peek()) {
             gnt.node.addEdge(new GraphEdge(breakNode, "", gnt.pathToChildIsDead));
@@ -591,6 +649,7 @@ public class MethodVisitor extends VoidVisitorAdapter<StateWrapper> {
 
     @Override
     public void visit(ReturnStmt rs, StateWrapper arg) {
+        cancellation.check();
         List<GraphNodeTuple> parents = this.statementStack.peek();
         GraphNode returnNode = new GraphNode(BlockType.RETURN, rs.toString());
         for (GraphNodeTuple gnt: parents) {
@@ -602,6 +661,19 @@ public class MethodVisitor extends VoidVisitorAdapter<StateWrapper> {
 
     @Override
     public void visit(WhileStmt ws, StateWrapper arg) {
+        AnalysisEvents.WhileVisit event = new AnalysisEvents.WhileVisit();
+        event.begin();
+        this.nestingDepth++;
+        try {
+            visitWhile(ws, arg);
+        } finally {
+            this.nestingDepth--;
+            event.end(ws, this.nestingDepth);
+        }
+    }
+
+    private void visitWhile(WhileStmt ws, StateWrapper arg) {
+        cancellation.check();
         List<GraphNodeTuple> parents = this.statementStack.peek();
 
         // eg. oddNumber % 2 != 0
@@ -625,8 +697,7 @@ public class MethodVisitor extends VoidVisitorAdapter<StateWrapper> {
         whileStmt.addEdge(new GraphEdge(conditionalStmt, "", areAllIncomingPathsDead));
 
         // Save a copy of the evaluator prior to all the loop statements
-        ExprEvaluator evaluatorBeforeLoop = deepcopyEvaluator();
-        Set<String> variablesBeforeLoop = deepcopyVariableNames();
+        VariableEnvironment evaluatorBeforeLoop = this.variableStack.peek();
 
         // Set [oddNumber % 2 != 0] as parent node of first body node. Visit Body.
         this.statementStack.add(Arrays.asList(new GraphNodeTuple(conditionalStmt, "then", areAllIncomingPathsDead)));
@@ -635,14 +706,10 @@ public class MethodVisitor extends VoidVisitorAdapter<StateWrapper> {
         arg.loopStates.pop();
 
         // Reconcile evaluator after all the loop statements
-        ExprEvaluator evaluatorAfterLoop = this.variableStack.peek();
-        Set<String> variablesAfterLoop = this.variableNameStack.peek();
-        ExprEvaluator reconciledEvaluator = reconcileEvaluator(variablesAfterLoop, evaluatorAfterLoop,
-                variablesBeforeLoop, evaluatorBeforeLoop);
+        VariableEnvironment evaluatorAfterLoop = this.variableStack.peek();
+        VariableEnvironment reconciledEvaluator = evaluatorAfterLoop.join(evaluatorBeforeLoop);
 
-        this.variableStack.pop();
-        this.variableStack.add(reconciledEvaluator);
-        ResetContinueVariableAfterLoop(reconciledEvaluator);
+        setEnvironment(ResetContinueVariableAfterLoop(reconciledEvaluator));
 
         // Last node statement from for loop body. eg: int x = i;
         GraphNode lastBodyNode = this.statementStack.peek().get(0).node;
@@ -656,6 +723,7 @@ public class MethodVisitor extends VoidVisitorAdapter<StateWrapper> {
 
     @Override
     public void visit(ContinueStmt cs, StateWrapper arg) {
+        cancellation.check();
         // We want to point this node to the conditional of the WHILE/FOR loop
         List<GraphNodeTuple> parents = this.statementStack.peek();
         GraphNode continueNode = new GraphNode(BlockType.STMT, "continue");
@@ -666,10 +734,7 @@ public class MethodVisitor extends VoidVisitorAdapter<StateWrapper> {
         }
 
         // Set Eval variable of 'continue called' = true.
-        ExprEvaluator evaluator = this.variableStack.peek();
-        IExpr result = evaluateSymjaExpression(evaluator, continueCalledStringName + " = true");
-        evaluator.defineVariable(continueCalledStringName, result);
-        this.variableNameStack.peek().add(continueCalledStringName);
+        defineVariable(continueCalledStringName, AbstractValue.TRUE);
 
         arg.loopStates.peek().containsContinue = true;
 
@@ -686,14 +751,12 @@ public class MethodVisitor extends VoidVisitorAdapter<StateWrapper> {
         }
     }
     
-    private ExprEvaluator reconcileEvaluator(Set<String> variablesAfterElseBranch,
-            ExprEvaluator evaluatorAfterElseBranch, Set<String> variablesAfterThenBranch,
-            ExprEvaluator evaluatorAfterThenBranch, boolean elseBranchDead, boolean thenBranchDead) {
+    private VariableEnvironment reconcileEvaluator(VariableEnvironment evaluatorAfterElseBranch,
+            VariableEnvironment evaluatorAfterThenBranch, boolean elseBranchDead, boolean thenBranchDead) {
 
         if (elseBranchDead == thenBranchDead) {
-            // Either they are both dead or both alive - then we reconcile
-            return reconcileEvaluator(variablesAfterElseBranch, evaluatorAfterElseBranch, variablesAfterThenBranch,
-                    evaluatorAfterThenBranch);
+            // Either they are both dead or both alive - then we reconcile, keeping only the variables both agree on
+            return evaluatorAfterElseBranch.join(evaluatorAfterThenBranch);
         } else if (elseBranchDead) {
             // Take the evaluator from the THEN branch (ELSE is not taken)
             return evaluatorAfterThenBranch;
@@ -703,53 +766,6 @@ public class MethodVisitor extends VoidVisitorAdapter<StateWrapper> {
         }
     }
 
-    private ExprEvaluator reconcileEvaluator(Set<String> variablesA, ExprEvaluator evaluatorA, Set<String> variablesB, ExprEvaluator evaluatorB) {
-        // Take the intersection of the two branches
-        Set<String> commonVariables = new HashSet<>(variablesA);
-        commonVariables.retainAll(variablesB);
-
-        ExprEvaluator evaluator = new ExprEvaluator();
-        IExpr resultA;
-        IExpr resultB;
-
-        for (String variable : commonVariables) {
-            resultA = evaluatorA.getVariable(variable);
-            resultB = evaluatorB.getVariable(variable);
-
-            if (resultA == resultB) {
-                // Both branches result in the same thing
-                evaluator.defineVariable(variable, resultA);
-            } else {
-                // One branch diverges, so we just make the variable symbolic
-                evaluator.defineVariable(variable);
-            }
-
-        }
-
-        return evaluator;
-    }
-
-
-    private Set<String> deepcopyVariableNames() {
-        Set<String> oldVariables = this.variableNameStack.peek();
-
-        return new HashSet<>(oldVariables);
-    }
-
-    private ExprEvaluator deepcopyEvaluator() {
-        ExprEvaluator newEvaluator = new ExprEvaluator();
-
-        ExprEvaluator oldEvaluator = this.variableStack.peek();
-        Set<String> variables = this.variableNameStack.peek();
-
-        for (String variable : variables) {
-            IExpr result = oldEvaluator.getVariable(variable);
-            newEvaluator.defineVariable(variable, result);
-        }
-
-        return newEvaluator;
-    }
-
     private boolean areAllIncomingPathsDead() {
         // Suppose we have ten incoming edges to this one node
         // As long as ONE edge is not dead, then we can say that this path is still viable, and we return false
@@ -772,12 +788,12 @@ public class MethodVisitor extends VoidVisitorAdapter<StateWrapper> {
     }
 
     /**
-     * Resets 'continue called' state in symja back to default false.
+     * Resets 'continue called' state back to default false.
      */
-    private void ResetContinueVariableAfterLoop(ExprEvaluator eval) {
+    private VariableEnvironment ResetContinueVariableAfterLoop(VariableEnvironment eval) {
         // TODO: manually test to see if this brings any problems. (eg. nested loop + if + loop + continue + if +
         //  loop)
-        eval.defineVariable(continueCalledStringName, false);
+        return eval.with(continueCalledStringName, AbstractValue.FALSE);
     }
 
 }
@@ -0,0 +1,195 @@
+package viz;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import visitor.AnalysisCancelledException;
+import visitor.Cancellation;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Bounds how many analyses run at once. Requests beyond the concurrency limit wait in a queue, which is bounded both by
+ * the number of requests and by their total estimated cost; a request that does not fit is rejected at once, with an
+ * estimate of when the queue will have drained.
+ */
+@Component
+public class AdmissionControl {
+
+    // Start of anything that looks like a method or constructor declaration: a name that is not a statement keyword,
+    // parameters and an opening brace
+    private static final Pattern METHOD_HEADER = Pattern.compile(
+            "\\b(?!(?:if|for|while|switch|catch|synchronized)\\b)\\w+\\s*\\([^()]*\\)\\s*(throws\\s[\\w.,\\s]+)?\\{");
+
+    private final int maxConcurrent;
+    private final int maxQueued;
+    private final long maxQueuedCost;
+    private final Semaphore running;
+
+    // Guarded by this
+    private int queued;
+    private long queuedCost;
+    private long runningCost;
+
+    // Exponential moving average of how long one unit of cost takes to analyze
+    private volatile double nanosPerCost = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong queueTimeouts = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+
+    public AdmissionControl(@Value("${graph.admission.max-concurrent:0}") int maxConcurrent,
+                            @Value("${graph.admission.max-queued:32}") int maxQueued,
+                            @Value("${graph.admission.max-queued-cost:2000}") long maxQueuedCost) {
+        // Analysis is CPU bound, so by default run as many as there are cores
+        this.maxConcurrent = maxConcurrent > 0 ? maxConcurrent : Runtime.getRuntime().availableProcessors();
+        this.maxQueued = maxQueued;
+        this.maxQueuedCost = maxQueuedCost;
+        this.running = new Semaphore(this.maxConcurrent, true);
+    }
+
+    /**
+     * Estimates how expensive the input is to analyze without parsing it: one unit per method, plus one per 2 KiB of
+     * code.
+     */
+    public static long estimateCost(String inputCode) {
+        int methods = 0;
+        Matcher matcher = METHOD_HEADER.matcher(inputCode);
+        while (matcher.find()) {
+            methods++;
+        }
+        return 1 + methods + inputCode.length() / 2048;
+    }
+
+    /**
+     * Takes a place in the queue, or rejects the request if the queue is full.
+     * @throws RejectedException if there is no room in the queue.
+     */
+    public Ticket admit(long cost) {
+        synchronized (this) {
+            // An expensive request may always queue behind nothing, otherwise it could never run at all
+            boolean fits = queued < maxQueued && (queued == 0 || queuedCost + cost <= maxQueuedCost);
+            if (!fits) {
+                rejected.incrementAndGet();
+                throw new RejectedException("Too many graphs are being generated, " + queued + " are waiting",
+                        retryAfterSeconds());
+            }
+            queued++;
+            queuedCost += cost;
+        }
+        admitted.incrementAndGet();
+        return new Ticket(cost);
+    }
+
+    // time until the queued and running work is done, spread over every slot
+    private long retryAfterSeconds() {
+        double nanos = (queuedCost + runningCost) * nanosPerCost / maxConcurrent;
+        return Math.max(1, (long) Math.ceil(nanos / TimeUnit.SECONDS.toNanos(1)));
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (this) {
+            stats.put("queued", queued);
+            stats.put("queuedCost", queuedCost);
+            stats.put("running", maxConcurrent - running.availablePermits());
+            stats.put("runningCost", runningCost);
+        }
+        stats.put("maxConcurrent", maxConcurrent);
+        stats.put("maxQueued", maxQueued);
+        stats.put("maxQueuedCost", maxQueuedCost);
+        stats.put("admitted", admitted.get());
+        stats.put("rejected", rejected.get());
+        stats.put("queueTimeouts", queueTimeouts.get());
+        stats.put("completed", completed.get());
+        stats.put("millisPerCost", nanosPerCost / TimeUnit.MILLISECONDS.toNanos(1));
+        return stats;
+    }
+
+    /**
+     * A place in the queue and then a running slot. Must be closed once the analysis is done, whether or not it ever
+     * started.
+     */
+    public class Ticket implements AutoCloseable {
+        private final long cost;
+        private boolean inQueue = true;
+        private long startNanos = -1;
+
+        private Ticket(long cost) {
+            this.cost = cost;
+        }
+
+        /**
+         * Waits in the queue until a running slot is free, for at most as long as the cancellation allows.
+         * @throws AnalysisCancelledException if the deadline passed while waiting.
+         */
+        public void start(Cancellation cancellation) throws InterruptedException {
+            start(cancellation, cancellation);
+        }
+
+        /**
+         * @param queueDeadline - deadline for the wait alone, for analyses that may run on without one once started.
+         */
+        public void start(Cancellation cancellation, Cancellation queueDeadline) throws InterruptedException {
+            cancellation.check();
+            long waitMillis = Math.min(cancellation.remainingMillis(), queueDeadline.remainingMillis());
+            if (!running.tryAcquire(waitMillis, TimeUnit.MILLISECONDS)) {
+                queueTimeouts.incrementAndGet();
+                cancellation.check();
+                throw new AnalysisCancelledException("No analysis slot became free before the deadline", true);
+            }
+            synchronized (AdmissionControl.this) {
+                leaveQueue();
+                runningCost += cost;
+            }
+            startNanos = System.nanoTime();
+        }
+
+        private void leaveQueue() {
+            if (inQueue) {
+                inQueue = false;
+                queued--;
+                queuedCost -= cost;
+            }
+        }
+
+        @Override
+        public void close() {
+            synchronized (AdmissionControl.this) {
+                leaveQueue();
+                if (startNanos >= 0) {
+                    runningCost -= cost;
+                }
+            }
+            if (startNanos >= 0) {
+                double sample = (double) (System.nanoTime() - startNanos) / cost;
+                nanosPerCost = 0.9 * nanosPerCost + 0.1 * sample;
+                completed.incrementAndGet();
+                running.release();
+                startNanos = -1;
+            }
+        }
+    }
+
+    /**
+     * Thrown when the queue has no room for another request.
+     */
+    public static class RejectedException extends RuntimeException {
+        private final long retryAfterSeconds;
+
+        public RejectedException(String message, long retryAfterSeconds) {
+            super(message);
+            this.retryAfterSeconds = retryAfterSeconds;
+        }
+
+        public long getRetryAfterSeconds() {
+            return retryAfterSeconds;
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package viz;
+
+import com.github.javaparser.JavaParser;
+import com.github.javaparser.ParserConfiguration;
+import com.github.javaparser.symbolsolver.JavaSymbolSolver;
+import com.github.javaparser.symbolsolver.resolution.typesolvers.CombinedTypeSolver;
+import com.github.javaparser.symbolsolver.resolution.typesolvers.ReflectionTypeSolver;
+import graph.BasicBlocks;
+import graph.ControlFlowGraph;
+import jakarta.annotation.PreDestroy;
+import org.springframework.stereotype.Service;
+import visitor.AnalysisCancelledException;
+import utils.StageTimings;
+import visitor.Cancellation;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Long-lived entry point to the analysis pipeline. JavaParsers with a preconfigured symbol solver are kept in a pool:
+ * each analysis borrows one for its duration and hands it back afterwards, so the solver caches stay warm without being
+ * shared between threads or installed into StaticJavaParser. Asynchronous requests run on virtual threads, which are
+ * created per request and so could not keep a parser of their own.
+ */
+@Service
+public class AnalysisService {
+
+    private final Queue<JavaParser> idleParsers = new ConcurrentLinkedQueue<>();
+    private final ExecutorService pipeline = Executors.newVirtualThreadPerTaskExecutor();
+    private final GraphRenderer renderer;
+    private final AdmissionControl admission;
+    private final PipelineMetrics metrics;
+
+    public AnalysisService(GraphRenderer renderer, AdmissionControl admission, PipelineMetrics metrics) {
+        this.renderer = renderer;
+        this.admission = admission;
+        this.metrics = metrics;
+        // Run a tiny input through the pipeline so class loading happens at startup rather than on the first request
+        runAnalysis("public class Warmup { void warmup() { System.out.println(\"warmup\"); } }", false,
+                Cancellation.NONE, new StageTimings());
+    }
+
+    /**
+     * Runs the whole pipeline on the given input code.
+     * @return the rendered SVG, or null if the input could not be parsed.
+     * @throws IOException if the graph could not be rendered.
+     */
+    public byte[] generateSvg(String inputCode) throws IOException {
+        return generateSvg(inputCode, false);
+    }
+
+    /**
+     * @param basicBlocks - whether to merge straight-line statements into basic blocks before rendering.
+     */
+    public byte[] generateSvg(String inputCode, boolean basicBlocks) throws IOException {
+        return generateSvg(inputCode, basicBlocks, Cancellation.NONE);
+    }
+
+    /**
+     * @throws AnalysisCancelledException if the analysis was cancelled or ran past its deadline.
+     */
+    public byte[] generateSvg(String inputCode, boolean basicBlocks, Cancellation cancellation) throws IOException {
+        return generateSvg(inputCode, basicBlocks, cancellation, new StageTimings());
+    }
+
+    /**
+     * @param timings - receives the time spent in each stage.
+     */
+    public byte[] generateSvg(String inputCode, boolean basicBlocks, Cancellation cancellation, StageTimings timings)
+            throws IOException {
+        return generateSvg(inputCode, basicBlocks, cancellation, cancellation, timings);
+    }
+
+    /**
+     * @param queueDeadline - how long to wait for an analysis slot, see
+     *                      {@link #analyze(String, boolean, Cancellation, Cancellation, StageTimings)}.
+     */
+    public byte[] generateSvg(String inputCode, boolean basicBlocks, Cancellation cancellation,
+                              Cancellation queueDeadline, StageTimings timings) throws IOException {
+        ControlFlowGraph graph = analyze(inputCode, basicBlocks, cancellation, queueDeadline, timings);
+        if (graph == null) {
+            return null;
+        }
+        // No point in rendering a graph nobody is waiting for any more
+        cancellation.check();
+        return renderSvg(graph, timings);
+    }
+
+    /**
+     * Runs the pipeline on a virtual thread. Cancelling the returned future cancels the analysis and interrupts the
+     * render.
+     * @return the rendered SVG, or null if the input could not be parsed.
+     */
+    public CompletableFuture<byte[]> generateSvgAsync(String inputCode, boolean basicBlocks,
+                                                      Cancellation cancellation) {
+        return generateSvgAsync(inputCode, basicBlocks, cancellation, new StageTimings());
+    }
+
+    /**
+     * @param timings - filled in by the time the returned future completes.
+     */
+    public CompletableFuture<byte[]> generateSvgAsync(String inputCode, boolean basicBlocks,
+                                                      Cancellation cancellation, StageTimings timings) {
+        return generateSvgAsync(inputCode, basicBlocks, cancellation, cancellation, timings);
+    }
+
+    /**
+     * @param queueDeadline - how long to wait for an analysis slot, see
+     *                      {@link #analyze(String, boolean, Cancellation, Cancellation, StageTimings)}.
+     */
+    public CompletableFuture<byte[]> generateSvgAsync(String inputCode, boolean basicBlocks,
+                                                      Cancellation cancellation, Cancellation queueDeadline,
+                                                      StageTimings timings) {
+        return submit(() -> generateSvg(inputCode, basicBlocks, cancellation, queueDeadline, timings),
+                cancellation);
+    }
+
+    /**
+     * Runs only the analysis on a virtual thread. Cancelling the returned future cancels the analysis.
+     * @param queueDeadline - how long to wait for an analysis slot, see
+     *                      {@link #analyze(String, boolean, Cancellation, Cancellation, StageTimings)}.
+     * @param timings - filled in by the time the returned future completes.
+     * @return the graph of every method in the input, or null if the input could not be parsed.
+     */
+    public CompletableFuture<ControlFlowGraph> analyzeAsync(String inputCode, boolean basicBlocks,
+                                                            Cancellation cancellation, Cancellation queueDeadline,
+                                                            StageTimings timings) {
+        return submit(() -> analyze(inputCode, basicBlocks, cancellation, queueDeadline, timings), cancellation);
+    }
+
+    private <T> CompletableFuture<T> submit(Callable<T> work, Cancellation cancellation) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Future<?> task = pipeline.submit(() -> {
+            try {
+                result.complete(work.call());
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        });
+        result.whenComplete((svg, e) -> {
+            if (result.isCancelled()) {
+                cancellation.cancel();
+                task.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Runs only the analysis part of the pipeline.
+     * @return the graph of every method in the input, or null if the input could not be parsed.
+     */
+    public ControlFlowGraph analyze(String inputCode, boolean basicBlocks) {
+        return analyze(inputCode, basicBlocks, Cancellation.NONE);
+    }
+
+    /**
+     * Waits for an analysis slot before analyzing.
+     * @throws AdmissionControl.RejectedException if too many analyses are already waiting.
+     * @throws AnalysisCancelledException if the analysis was cancelled or ran past its deadline, including while it
+     *                                    was waiting for a slot.
+     */
+    public ControlFlowGraph analyze(String inputCode, boolean basicBlocks, Cancellation cancellation) {
+        return analyze(inputCode, basicBlocks, cancellation, new StageTimings());
+    }
+
+    /**
+     * @param timings - receives the time spent in each stage, which is also recorded in the metrics.
+     */
+    public ControlFlowGraph analyze(String inputCode, boolean basicBlocks, Cancellation cancellation,
+                                    StageTimings timings) {
+        return analyze(inputCode, basicBlocks, cancellation, cancellation, timings);
+    }
+
+    /**
+     * @param queueDeadline - deadline for the wait for an analysis slot, for analyses whose cancellation has none of
+     *                      its own; past it, the analysis fails as if its own deadline had passed while waiting.
+     */
+    public ControlFlowGraph analyze(String inputCode, boolean basicBlocks, Cancellation cancellation,
+                                    Cancellation queueDeadline, StageTimings timings) {
+        try (AdmissionControl.Ticket ticket = admission.admit(AdmissionControl.estimateCost(inputCode))) {
+            ticket.start(cancellation, queueDeadline);
+            ControlFlowGraph graph = runAnalysis(inputCode, basicBlocks, cancellation, timings);
+            timings.setInput(inputCode.length(), graph == null ? 0 : graph.rootCount());
+            metrics.record(timings, StageTimings.Stage.PARSE, StageTimings.Stage.RESOLVE, StageTimings.Stage.VISIT,
+                    StageTimings.Stage.SYMJA);
+            return graph;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AnalysisCancelledException("Interrupted while waiting for an analysis slot", false);
+        }
+    }
+
+    private ControlFlowGraph runAnalysis(String inputCode, boolean basicBlocks, Cancellation cancellation,
+                                         StageTimings timings) {
+        JavaParser parser = idleParsers.poll();
+        if (parser == null) {
+            parser = createParser();
+        }
+        try {
+            ControlFlowGraph graph = new ProjectGenerator(inputCode, parser, cancellation, timings).getGraph();
+            return graph != null && basicBlocks ? BasicBlocks.coalesce(graph) : graph;
+        } finally {
+            idleParsers.offer(parser);
+        }
+    }
+
+    /**
+     * @param inputLength - length of the source code the graph was analyzed from, which the metrics are tagged with.
+     */
+    public byte[] renderSvg(ControlFlowGraph graph, int inputLength) throws IOException {
+        StageTimings timings = new StageTimings();
+        timings.setInput(inputLength, graph.rootCount());
+        return renderSvg(graph, timings);
+    }
+
+    /**
+     * Renders the graph and records how long it took under the input described by the timings.
+     */
+    public byte[] renderSvg(ControlFlowGraph graph, StageTimings timings) throws IOException {
+        byte[] svg = renderer.renderSvg(graph, timings);
+        metrics.record(timings, StageTimings.Stage.DOT, StageTimings.Stage.LAYOUT);
+        return svg;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pipeline.shutdownNow();
+    }
+
+    private static JavaParser createParser() {
+        // Configure type solvers
+        ReflectionTypeSolver reflectionTypeSolver = new ReflectionTypeSolver();
+
+        // Combine the type solvers
+        CombinedTypeSolver combinedTypeSolver = new CombinedTypeSolver();
+        combinedTypeSolver.add(reflectionTypeSolver);
+
+        // Configure symbol resolver with the combined type solver
+        JavaSymbolSolver symbolSolver = new JavaSymbolSolver(combinedTypeSolver);
+        // Java 17 rather than the default of 11, so that switch expressions and multi-label cases parse
+        return new JavaParser(new ParserConfiguration()
+                .setLanguageLevel(ParserConfiguration.LanguageLevel.JAVA_17)
+                .setSymbolResolver(symbolSolver));
+    }
+}
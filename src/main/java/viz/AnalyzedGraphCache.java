@@ -0,0 +1,76 @@
+package viz;
+
+import graph.ControlFlowGraph;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded in-memory cache of analyzed graphs, keyed like {@link GraphCache}. Clients that list the methods of an input
+ * and then fetch each method's graph send the same input once per request; this lets all of them share one analysis.
+ * Entries are evicted in least-recently-used order.
+ */
+@Component
+public class AnalyzedGraphCache {
+
+    private final int maxEntries;
+
+    // Access-ordered, so iteration starts from the least recently used entry
+    private final LinkedHashMap<String, ControlFlowGraph> entries;
+
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+
+    public AnalyzedGraphCache(@Value("${graph.cache.max-analyzed:64}") int maxEntries) {
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+    }
+
+    /**
+     * Returns the cached graph for the given key, or null if it is not present.
+     */
+    public ControlFlowGraph get(String key) {
+        ControlFlowGraph graph;
+        synchronized (this) {
+            graph = entries.get(key);
+        }
+        if (graph == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return graph;
+    }
+
+    public void put(String key, ControlFlowGraph graph) {
+        if (maxEntries <= 0) {
+            return;
+        }
+        synchronized (this) {
+            entries.put(key, graph);
+            Iterator<Map.Entry<String, ControlFlowGraph>> eldest = entries.entrySet().iterator();
+            while (entries.size() > maxEntries && eldest.hasNext()) {
+                eldest.next();
+                eldest.remove();
+            }
+        }
+    }
+
+    public Map<String, Long> getStats() {
+        Map<String, Long> stats = new HashMap<>();
+        synchronized (this) {
+            stats.put("entries", (long) entries.size());
+        }
+        stats.put("maxEntries", (long) maxEntries);
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        return stats;
+    }
+}
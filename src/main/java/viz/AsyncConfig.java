@@ -0,0 +1,25 @@
+package viz;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Streamed responses, such as batch results, keep the request open until everything is written, which can take much
+ * longer than the servlet container's default async timeout.
+ */
+@Configuration
+public class AsyncConfig implements WebMvcConfigurer {
+
+    private final long asyncTimeoutMillis;
+
+    public AsyncConfig(@Value("${graph.batch.timeout-ms:600000}") long asyncTimeoutMillis) {
+        this.asyncTimeoutMillis = asyncTimeoutMillis;
+    }
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setDefaultTimeout(asyncTimeoutMillis);
+    }
+}
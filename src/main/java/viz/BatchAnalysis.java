@@ -0,0 +1,199 @@
+package viz;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import graph.ControlFlowGraph;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import visitor.AnalysisCancelledException;
+import visitor.Cancellation;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Analyzes many inputs in one request. At most a fixed number of inputs are in the pipeline at once, each on a virtual
+ * thread with a deadline of its own, and every result is written as one line of NDJSON as soon as it is done:
+ * <pre>
+ * {"index": 3, "status": 200, "svg": "&lt;svg ..."}
+ * {"index": 0, "status": 504, "error": "Analysis did not finish within 20000 ms"}
+ * </pre>
+ * Lines come in the order the inputs finish, so each one carries the index of its input. A failed input only produces
+ * an error line; the rest of the batch carries on.
+ */
+@Component
+public class BatchAnalysis {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    public enum Format {
+        SVG, DOT, JSON;
+
+        /**
+         * @throws IllegalArgumentException if there is no such format.
+         */
+        public static Format parse(String name) {
+            return name == null ? SVG : valueOf(name.toUpperCase(Locale.ROOT));
+        }
+    }
+
+    /**
+     * Body of a batch request.
+     * @param format - "svg" (the default), "dot" or "json".
+     */
+    public record Request(List<String> sources, String format, boolean basicBlocks) {
+    }
+
+    // Outcome of one input: exactly one of output and error is set
+    private record Result(int index, Object output, Throwable error) {
+    }
+
+    private final AnalysisService analysisService;
+    private final GraphCache graphCache;
+    private final int parallelism;
+    private final long itemTimeoutMillis;
+
+    public BatchAnalysis(AnalysisService analysisService, GraphCache graphCache,
+                         @Value("${graph.batch.parallelism:0}") int parallelism,
+                         @Value("${graph.request.timeout-ms:20000}") long itemTimeoutMillis) {
+        this.analysisService = analysisService;
+        this.graphCache = graphCache;
+        // Admission control has the final say; this only keeps one batch from filling the whole admission queue
+        this.parallelism = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        this.itemTimeoutMillis = itemTimeoutMillis;
+    }
+
+    /**
+     * Analyzes every source and writes one line per source to the stream, which is flushed after each line but not
+     * closed. If writing fails, e.g. because the client went away, every input still in the pipeline is cancelled.
+     */
+    public void run(List<String> sources, Format format, boolean basicBlocks, OutputStream out) throws IOException {
+        BlockingQueue<Result> done = new LinkedBlockingQueue<>();
+        Semaphore slots = new Semaphore(parallelism);
+        Queue<Cancellation> cancellations = new ConcurrentLinkedQueue<>();
+
+        try (ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor()) {
+            // Inputs are handed out from a thread of their own, so that results are written while later inputs wait
+            workers.execute(() -> {
+                int index = 0;
+                try {
+                    for (; index < sources.size(); index++) {
+                        slots.acquire();
+                        int item = index;
+                        Cancellation cancellation = new Cancellation(itemTimeoutMillis);
+                        cancellations.add(cancellation);
+                        try {
+                            workers.execute(() -> {
+                                try {
+                                    done.add(new Result(item, process(sources.get(item), format, basicBlocks,
+                                            cancellation), null));
+                                } catch (Throwable e) {
+                                    done.add(new Result(item, null, e));
+                                } finally {
+                                    slots.release();
+                                }
+                            });
+                        } catch (RejectedExecutionException e) {
+                            slots.release();
+                            throw e;
+                        }
+                    }
+                } catch (InterruptedException | RejectedExecutionException e) {
+                    // The batch is being torn down. Inputs that never started still get a line of their own, so that
+                    // the writer below always gets one result per input and stops
+                    Throwable error = e instanceof RejectedExecutionException ? e
+                            : new AnalysisCancelledException("Batch was cancelled before this input started", false);
+                    for (; index < sources.size(); index++) {
+                        done.add(new Result(index, null, error));
+                    }
+                }
+            });
+
+            try {
+                for (int written = 0; written < sources.size(); written++) {
+                    writeLine(done.take(), format, out);
+                }
+            } catch (IOException | InterruptedException e) {
+                for (Cancellation cancellation : cancellations) {
+                    cancellation.cancel();
+                }
+                workers.shutdownNow();
+                if (e instanceof InterruptedException) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while writing batch results");
+                }
+                throw (IOException) e;
+            }
+        }
+    }
+
+    private Object process(String inputCode, Format format, boolean basicBlocks, Cancellation cancellation)
+            throws IOException {
+        String cacheKey = GraphCache.keyFor(inputCode) + (basicBlocks ? "-blocks" : "");
+        if (format == Format.SVG) {
+            byte[] cached = graphCache.get(cacheKey);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        ControlFlowGraph graph = analysisService.analyze(inputCode, basicBlocks, cancellation);
+        if (graph == null) {
+            throw new IOException("Error in generating graph");
+        }
+        if (format == Format.DOT) {
+            return new GraphGenerator().generateFullGraph(graph);
+        } else if (format == Format.JSON) {
+            return graph;
+        }
+        cancellation.check();
+        byte[] svg = analysisService.renderSvg(graph, inputCode.length());
+        graphCache.put(cacheKey, svg);
+        return svg;
+    }
+
+    private void writeLine(Result result, Format format, OutputStream out) throws IOException {
+        try (JsonGenerator json = JSON_FACTORY.createGenerator(out, JsonEncoding.UTF8)
+                .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)) {
+            json.writeStartObject();
+            json.writeNumberField("index", result.index());
+            if (result.error() != null) {
+                Throwable error = GraphController.unwrap(result.error());
+                json.writeNumberField("status", GraphController.statusFor(error).value());
+                if (error instanceof AdmissionControl.RejectedException rejected) {
+                    json.writeNumberField("retryAfter", rejected.getRetryAfterSeconds());
+                }
+                json.writeStringField("error", String.valueOf(error.getMessage()));
+            } else {
+                json.writeNumberField("status", 200);
+                switch (format) {
+                    case DOT -> json.writeStringField("dot", (String) result.output());
+                    case JSON -> {
+                        json.writeFieldName("graph");
+                        new GraphJsonWriter().write((ControlFlowGraph) result.output(), json);
+                    }
+                    default -> {
+                        byte[] svg = (byte[]) result.output();
+                        json.writeFieldName("svg");
+                        json.writeUTF8String(svg, 0, svg.length);
+                    }
+                }
+            }
+            json.writeEndObject();
+        }
+        out.write('\n');
+        out.flush();
+    }
+}
@@ -0,0 +1,117 @@
+package viz;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Bounded in-memory cache of rendered SVGs, keyed by a hash of the normalized input code.
+ * Entries are evicted in least-recently-used order once either the entry or the byte limit is exceeded.
+ */
+@Component
+public class GraphCache {
+
+    private static final Pattern TRAILING_WHITESPACE = Pattern.compile("[ \t]+\n");
+
+    private final int maxEntries;
+    private final long maxBytes;
+
+    // Access-ordered, so iteration starts from the least recently used entry
+    private final LinkedHashMap<String, byte[]> entries;
+    private long currentBytes;
+
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private final AtomicLong evictions;
+
+    public GraphCache(@Value("${graph.cache.max-entries:256}") int maxEntries,
+                      @Value("${graph.cache.max-bytes:67108864}") long maxBytes) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+        this.currentBytes = 0;
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+        this.evictions = new AtomicLong();
+    }
+
+    /**
+     * Returns the cached SVG for the given key, or null if it is not present.
+     */
+    public byte[] get(String key) {
+        byte[] svg;
+        synchronized (this) {
+            svg = entries.get(key);
+        }
+        if (svg == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return svg;
+    }
+
+    public void put(String key, byte[] svg) {
+        if (svg.length > maxBytes || maxEntries <= 0) {
+            // Would evict everything else and still not fit
+            return;
+        }
+        synchronized (this) {
+            byte[] previous = entries.put(key, svg);
+            if (previous != null) {
+                currentBytes -= previous.length;
+            }
+            currentBytes += svg.length;
+
+            Iterator<Map.Entry<String, byte[]>> eldest = entries.entrySet().iterator();
+            while ((entries.size() > maxEntries || currentBytes > maxBytes) && eldest.hasNext()) {
+                currentBytes -= eldest.next().getValue().length;
+                eldest.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Counters used to tune the cache capacity.
+     */
+    public Map<String, Long> getStats() {
+        Map<String, Long> stats = new HashMap<>();
+        synchronized (this) {
+            stats.put("entries", (long) entries.size());
+            stats.put("bytes", currentBytes);
+        }
+        stats.put("maxEntries", (long) maxEntries);
+        stats.put("maxBytes", maxBytes);
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("evictions", evictions.get());
+        return stats;
+    }
+
+    /**
+     * Hashes the input code after normalizing line endings and trailing whitespace, which never change the graph.
+     */
+    public static String keyFor(String inputCode) {
+        String normalized = TRAILING_WHITESPACE.matcher(inputCode.replace("\r\n", "\n")).replaceAll("\n").strip();
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            StringBuilder key = new StringBuilder();
+            for (byte b : digest.digest(normalized.getBytes(StandardCharsets.UTF_8))) {
+                key.append(String.format("%02x", b));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
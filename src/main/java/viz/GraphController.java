@@ -1,5 +1,7 @@
 package viz;
 
+import graph.ControlFlowGraph;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.ByteArrayResource;
 import org.springframework.core.io.Resource;
 import org.springframework.http.HttpHeaders;
@@ -7,17 +9,58 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import utils.StageTimings;
+import visitor.AnalysisCancelledException;
+import visitor.Cancellation;
 
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
-import java.util.Arrays;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 @RestController
 public class GraphController {
 
-    private static final String FILE_PATH = "src/main/java/viz/generatedGraph.svg";
+    private static final String SERVER_TIMING = "Server-Timing";
+
+    private final GraphCache graphCache;
+    private final AnalyzedGraphCache analyzedGraphs;
+    private final AnalysisService analysisService;
+    private final GraphRenderer renderer;
+    private final AdmissionControl admissionControl;
+    private final BatchAnalysis batchAnalysis;
+    private final PipelineMetrics pipelineMetrics;
+    private final long requestTimeoutMillis;
+    private final int maxBatchSize;
+    private final SingleFlight<byte[]> inFlightGraphs = new SingleFlight<>();
+    private final SingleFlight<ControlFlowGraph> inFlightAnalyses = new SingleFlight<>();
+
+    public GraphController(GraphCache graphCache, AnalyzedGraphCache analyzedGraphs, AnalysisService analysisService,
+                           GraphRenderer renderer,
+                           AdmissionControl admissionControl, BatchAnalysis batchAnalysis,
+                           PipelineMetrics pipelineMetrics,
+                           @Value("${graph.request.timeout-ms:20000}") long requestTimeoutMillis,
+                           @Value("${graph.batch.max-sources:1000}") int maxBatchSize) {
+        this.graphCache = graphCache;
+        this.analyzedGraphs = analyzedGraphs;
+        this.batchAnalysis = batchAnalysis;
+        this.pipelineMetrics = pipelineMetrics;
+        this.maxBatchSize = maxBatchSize;
+        this.admissionControl = admissionControl;
+        this.requestTimeoutMillis = requestTimeoutMillis;
+        this.analysisService = analysisService;
+        this.renderer = renderer;
+    }
 
     @GetMapping("/hw")
     public String HelloWorld() {
@@ -29,26 +72,283 @@ public class GraphController {
     // and https://stackoverflow.com/questions/62825338/how-to-send-image-as-response-in-spring-boot
     // and https://stackoverflow.com/questions/74240649/spring-boot-api-to-download-svg-file
     @PostMapping (value = "/graph")
-    public ResponseEntity<Resource> generateGraph(@RequestBody Map<String, String> input) throws IOException {
+    public DeferredResult<ResponseEntity<Resource>> generateGraph(@RequestBody Map<String, String> input,
+                                                                  @RequestParam(defaultValue = "false") boolean basicBlocks) {
         // System.out.println(input.get("inputCode"));
-        try {
-            ProjectGenerator projectGenerator = new ProjectGenerator(input.get("inputCode"));
-            byte[] svgByteArray = Files.readAllBytes(Paths.get(FILE_PATH));
-            HttpHeaders header = new HttpHeaders();
-            header.add("Content-Type", "image/svg+xml");
+        long startNanos = System.nanoTime();
+        DeferredResult<ResponseEntity<Resource>> result = new DeferredResult<>(requestTimeoutMillis);
+        String inputCode = input.get("inputCode");
+        String cacheKey = GraphCache.keyFor(inputCode) + (basicBlocks ? "-blocks" : "");
+        byte[] cached = graphCache.get(cacheKey);
+        StageTimings timings = new StageTimings();
+        if (cached != null) {
+            result.setResult(svgResponse(cached, timings.toServerTiming(System.nanoTime() - startNanos)));
+            return result;
+        }
+
+        // The servlet thread is released here; the pipeline runs on a virtual thread. Identical requests arriving
+        // meanwhile wait for the same run instead of starting their own, so their timings stay empty and only the
+        // total is reported for them. The run has no deadline of its own: every request times out on its own, and
+        // the run is only cancelled once the last request waiting for it has gone. Only its wait for an analysis
+        // slot is bounded, by the deadline of the request that started it
+        Cancellation queueDeadline = new Cancellation(requestTimeoutMillis);
+        CompletableFuture<byte[]> svg = inFlightGraphs.join(cacheKey, () -> analysisService.generateSvgAsync(
+                inputCode, basicBlocks, new Cancellation(Long.MAX_VALUE), queueDeadline, timings));
+        svg.whenComplete((svgByteArray, e) -> {
+            if (e != null) {
+                result.setResult(errorResponse(e));
+            } else if (svgByteArray == null) {
+                result.setResult(errorResponse(new IOException("Error in generating graph")));
+            } else {
+                graphCache.put(cacheKey, svgByteArray);
+                result.setResult(svgResponse(svgByteArray, timings.toServerTiming(System.nanoTime() - startNanos)));
+            }
+        });
+        // The deadline of this request alone; DeferredResult only notices its own timeout at the container's next
+        // check, which may be long after it passed
+        Runnable timeOut = () -> {
+            if (result.setResult(errorResponse(new AnalysisCancelledException(
+                    "Graph was not generated within " + requestTimeoutMillis + " ms", true)))) {
+                svg.cancel(true);
+            }
+        };
+        CompletableFuture.delayedExecutor(requestTimeoutMillis, TimeUnit.MILLISECONDS).execute(timeOut);
+        result.onTimeout(timeOut);
+        // Runs after a timeout, or when the client went away, as well as after a normal response; cancelling a
+        // finished future does nothing, and cancelling this request's future only detaches it from the run
+        result.onCompletion(() -> svg.cancel(true));
+        return result;
+    }
 
-            final ByteArrayResource inputStream = new ByteArrayResource(svgByteArray);
+    private ResponseEntity<Resource> svgResponse(byte[] svgByteArray, String serverTiming) {
+        HttpHeaders header = new HttpHeaders();
+        header.add("Content-Type", "image/svg+xml");
+        header.add(SERVER_TIMING, serverTiming);
 
-            Files.delete(Paths.get(FILE_PATH));
+        final ByteArrayResource inputStream = new ByteArrayResource(svgByteArray);
 
-            return ResponseEntity.status(HttpStatus.OK).headers(header).body(inputStream);
+        return ResponseEntity.status(HttpStatus.OK).headers(header).body(inputStream);
+    }
+
+    private ResponseEntity<Resource> errorResponse(Throwable e) {
+        e = unwrap(e);
+        if (e instanceof AdmissionControl.RejectedException rejected) {
+            return rejectedResponse(rejected);
+        }
+        byte[] msgByteArray = String.valueOf(e.getMessage()).getBytes();
+        return ResponseEntity.status(statusFor(e)).contentType(MediaType.TEXT_PLAIN).body(new ByteArrayResource(msgByteArray));
+    }
+
+    static Throwable unwrap(Throwable e) {
+        return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+    }
+
+    /**
+     * Status to report for a failed pipeline run.
+     */
+    static HttpStatus statusFor(Throwable e) {
+        if (e instanceof AdmissionControl.RejectedException) {
+            return HttpStatus.TOO_MANY_REQUESTS;
+        } else if (e instanceof AnalysisCancelledException cancelled) {
+            return cancelled.isDeadlineExceeded() ? HttpStatus.GATEWAY_TIMEOUT : HttpStatus.SERVICE_UNAVAILABLE;
+        } else if (e instanceof GraphRenderer.RendererBusyException || e instanceof RejectedExecutionException) {
+            return HttpStatus.SERVICE_UNAVAILABLE;
+        }
+        return HttpStatus.INTERNAL_SERVER_ERROR;
+    }
+
+    @ExceptionHandler(AdmissionControl.RejectedException.class)
+    public ResponseEntity<Resource> rejectedResponse(AdmissionControl.RejectedException e) {
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, Long.toString(e.getRetryAfterSeconds()))
+                .contentType(MediaType.TEXT_PLAIN)
+                .body(new ByteArrayResource(e.getMessage().getBytes()));
+    }
+
+    @ExceptionHandler(AnalysisCancelledException.class)
+    public ResponseEntity<Resource> cancelledResponse(AnalysisCancelledException e) {
+        return errorResponse(e);
+    }
+
+    /**
+     * Returns the graph as JSON instead of SVG, for clients that lay it out themselves. Nothing is rendered, and the
+     * JSON is streamed to the client as it is generated.
+     */
+    @PostMapping("/graph.json")
+    public ResponseEntity<StreamingResponseBody> generateGraphJson(@RequestBody Map<String, String> input,
+                                                                   @RequestParam(defaultValue = "false") boolean basicBlocks) {
+        long startNanos = System.nanoTime();
+        StageTimings timings = new StageTimings();
+        ControlFlowGraph graph = analysisService.analyze(input.get("inputCode"), basicBlocks,
+                new Cancellation(requestTimeoutMillis), timings);
+        if (graph == null) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).contentType(MediaType.TEXT_PLAIN)
+                    .body(out -> out.write("Error in generating graph".getBytes()));
+        }
+        // The JSON is written after the headers have gone out, so the total only covers the analysis
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON)
+                .header(SERVER_TIMING, timings.toServerTiming(System.nanoTime() - startNanos))
+                .body(out -> new GraphJsonWriter().write(graph, out));
+    }
+
+    /**
+     * Analyzes many inputs at once and streams one NDJSON line per input as each finishes. Failed inputs are reported
+     * in their own line without stopping the batch.
+     */
+    @PostMapping("/graph/batch")
+    public ResponseEntity<StreamingResponseBody> generateBatch(@RequestBody BatchAnalysis.Request request) {
+        BatchAnalysis.Format format;
+        try {
+            format = BatchAnalysis.Format.parse(request.format());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().contentType(MediaType.TEXT_PLAIN)
+                    .body(out -> out.write(("Unknown format " + request.format()).getBytes()));
+        }
+        if (request.sources() == null || request.sources().size() > maxBatchSize) {
+            return ResponseEntity.badRequest().contentType(MediaType.TEXT_PLAIN)
+                    .body(out -> out.write(("A batch needs between 0 and " + maxBatchSize + " sources").getBytes()));
+        }
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON)
+                .body(out -> batchAnalysis.run(request.sources(), format, request.basicBlocks(), out));
+    }
+
+    /**
+     * Lists the analyzed methods, so that a client can fetch the graph of each method on its own.
+     */
+    @PostMapping("/graph/methods")
+    public ResponseEntity<List<Map<String, Object>>> listMethods(@RequestBody Map<String, String> input)
+            throws IOException {
+        long startNanos = System.nanoTime();
+        StageTimings timings = new StageTimings();
+        ControlFlowGraph graph = analyzedGraph(input.get("inputCode"), false, timings);
+        if (graph == null) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+        List<Map<String, Object>> methods = new ArrayList<>();
+        for (int i = 0; i < graph.rootCount(); i++) {
+            Map<String, Object> method = new LinkedHashMap<>();
+            method.put("index", i);
+            method.put("name", graph.text(graph.root(i)));
+            methods.add(method);
+        }
+        return ResponseEntity.ok().header(SERVER_TIMING, timings.toServerTiming(System.nanoTime() - startNanos))
+                .body(methods);
+    }
+
+    /**
+     * Renders one method of the input. Methods are cached by their own graph, so editing one method leaves the
+     * rendered graphs of all the others cached.
+     */
+    @PostMapping("/graph/methods/{index}")
+    public ResponseEntity<Resource> generateMethodGraph(@PathVariable int index,
+                                                        @RequestBody Map<String, String> input,
+                                                        @RequestParam(defaultValue = "false") boolean basicBlocks) {
+        long startNanos = System.nanoTime();
+        StageTimings timings = new StageTimings();
+        String inputCode = input.get("inputCode");
+        try {
+            ControlFlowGraph graph = analyzedGraph(inputCode, basicBlocks, timings);
+            if (graph == null) {
+                throw new IOException("Error in generating graph");
+            }
+            if (index < 0 || index >= graph.rootCount()) {
+                return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                        .body(new ByteArrayResource(("No method with index " + index).getBytes()));
+            }
+            ControlFlowGraph method = graph.method(index);
+            String cacheKey = "method-" + GraphCache.keyFor(new GraphGenerator().generateFullGraph(method));
+            byte[] svgByteArray = graphCache.get(cacheKey);
+            if (svgByteArray == null) {
+                StageTimings renderTimings = new StageTimings();
+                renderTimings.setInput(inputCode.length(), method.rootCount());
+                svgByteArray = analysisService.renderSvg(method, renderTimings);
+                graphCache.put(cacheKey, svgByteArray);
+                timings.add(renderTimings);
+            }
+            return svgResponse(svgByteArray, timings.toServerTiming(System.nanoTime() - startNanos));
         } catch (Exception e) {
-            byte[] msgByteArray = e.getMessage().getBytes();
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(new ByteArrayResource(msgByteArray));
+            return errorResponse(e);
+        }
+    }
+
+    /**
+     * Analyzes the input, or reuses the graph of an identical input that was analyzed before or is being analyzed
+     * right now. Only the request that runs the analysis gets its timings.
+     * @return the graph of every method, or null if the input could not be parsed.
+     * @throws AnalysisCancelledException if no graph was ready within the request timeout.
+     */
+    private ControlFlowGraph analyzedGraph(String inputCode, boolean basicBlocks, StageTimings timings)
+            throws IOException {
+        String cacheKey = GraphCache.keyFor(inputCode) + (basicBlocks ? "-blocks" : "");
+        ControlFlowGraph cached = analyzedGraphs.get(cacheKey);
+        if (cached != null) {
+            return cached;
         }
+        // As for /graph, the shared analysis has no deadline of its own: every request waits for it for as long as
+        // its own timeout allows, and the analysis is only cancelled once the last request waiting for it has gone
+        Cancellation queueDeadline = new Cancellation(requestTimeoutMillis);
+        CompletableFuture<ControlFlowGraph> graph = inFlightAnalyses.join(cacheKey, () -> {
+            CompletableFuture<ControlFlowGraph> analysis = analysisService.analyzeAsync(inputCode, basicBlocks,
+                    new Cancellation(Long.MAX_VALUE), queueDeadline, timings);
+            // Cancelling the flight must reach the analysis itself, so hand over its future rather than a dependent
+            analysis.thenAccept(analyzed -> {
+                if (analyzed != null) {
+                    analyzedGraphs.put(cacheKey, analyzed);
+                }
+            });
+            return analysis;
+        });
+        try {
+            return graph.get(requestTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            graph.cancel(true);
+            throw new AnalysisCancelledException("Graph was not generated within " + requestTimeoutMillis + " ms",
+                    true);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new IOException("Error in generating graph", e.getCause());
+        } catch (InterruptedException e) {
+            graph.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the analysis");
+        }
+    }
+
+    /**
+     * Latency percentiles of every pipeline stage, by input size and number of methods.
+     */
+    @GetMapping("/graph/metrics")
+    public List<Map<String, Object>> pipelineMetrics() {
+        return pipelineMetrics.getStats();
+    }
+
+    @GetMapping("/graph/admission")
+    public Map<String, Object> admissionStats() {
+        return admissionControl.getStats();
+    }
+
+    @GetMapping("/graph/inflight")
+    public Map<String, Long> inFlightStats() {
+        return inFlightGraphs.getStats();
+    }
 
+    @GetMapping("/graph/cache")
+    public Map<String, Long> cacheStats() {
+        return graphCache.getStats();
+    }
+
+    @GetMapping("/graph/cache/analyzed")
+    public Map<String, Long> analyzedCacheStats() {
+        return analyzedGraphs.getStats();
+    }
 
-//        return "this is the text: " + input;
+    // Readiness probe: 503 until every rendering engine has been warmed up
+    @GetMapping("/graph/ready")
+    public ResponseEntity<Map<String, Object>> ready() {
+        return ResponseEntity.status(renderer.isReady() ? HttpStatus.OK : HttpStatus.SERVICE_UNAVAILABLE)
+                .body(renderer.getStats());
     }
 
 }
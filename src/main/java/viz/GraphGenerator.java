@@ -1,37 +1,76 @@
 package viz;
 
 import graph.BlockType;
-import graph.GraphEdge;
+import graph.ControlFlowGraph;
 import graph.GraphNode;
+import guru.nidi.graphviz.attribute.Attributes;
+import guru.nidi.graphviz.attribute.ForLink;
+import guru.nidi.graphviz.model.MutableGraph;
+import guru.nidi.graphviz.model.MutableNode;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
 
+import static guru.nidi.graphviz.attribute.Attributes.attr;
+import static guru.nidi.graphviz.attribute.Attributes.attrs;
+import static guru.nidi.graphviz.model.Factory.mutGraph;
+import static guru.nidi.graphviz.model.Factory.mutNode;
+import static guru.nidi.graphviz.model.Factory.to;
+
+/**
+ * Turns the graph into one cluster per method, either as DOT text or directly as a graphviz-java model. Both walk the
+ * graph the same way, so the model is exactly what parsing the DOT text would produce.
+ */
 public class GraphGenerator {
 
     // Generates a new graph file from the input
     String tab = "  ";
     String doubleTab = tab + tab;
-    HashMap<GraphNode, String> nodeLabels;
+    int[] nodeLabels; // Number of the DOT node generated for each graph node, -1 if none yet
     int nodeCounter;
     int clusterCounter;
 
-    List<GraphNode> visited;
+    ControlFlowGraph graph;
+    BitSet visited;
+    GraphSink sink;
+
+    // Depth first traversal stack: node being written and the next of its edges to write
+    int[] stackNodes = new int[16];
+    int[] stackEdges = new int[16];
 
     public GraphGenerator() {
         nodeCounter = 0;
         clusterCounter = 0;
-        nodeLabels = new HashMap<>();
-        visited = new ArrayList<>();
+    }
+
+    /**
+     * Receives the clusters, nodes and edges of the graph in order. DOT nodes are identified by their number, where
+     * {@link #START} stands for the start node of the current cluster.
+     */
+    private interface GraphSink {
+        int START = -1;
+
+        void beginSubGraph(String clusterName, String label, int cluster) throws IOException;
+
+        void node(int number, String text, String shape) throws IOException;
+
+        void edge(int from, int to, String label, boolean isDead) throws IOException;
+
+        void endEdge(int from, int cluster) throws IOException;
+
+        void endSubGraph() throws IOException;
     }
 
     // generates a new label for a node
-    private String generateNewNodeLabel(GraphNode node) {
-        String newLabel = "node" + nodeCounter;
-        nodeLabels.put(node, newLabel);
-        nodeCounter++;
-        return newLabel;
+    private int nodeLabel(int node) {
+        if (nodeLabels[node] < 0) {
+            nodeLabels[node] = nodeCounter;
+            nodeCounter++;
+        }
+        return nodeLabels[node];
     }
 
     // generates a new label for a cluster of nodes i.e. subgraph
@@ -41,61 +80,117 @@ public class GraphGenerator {
         return newLabel;
     }
 
-    // generates the definition for a node received from an existing edge
-    private void generateDotDefinitions(GraphNode node, StringBuilder sb) {
-        String nodeLabel = nodeLabels.get(node);
-        generateDotEdges(node, sb, nodeLabel);
-    }
+    // emits the edges of every node reachable from the root, in the same order as a recursive depth first walk
+    private void generateEdges(int root) throws IOException {
+        int depth = 0;
+        stackNodes[0] = root;
+        stackEdges[0] = graph.firstEdge(root);
+        if (graph.firstEdge(root) == graph.endEdge(root)) {
+            sink.endEdge(GraphSink.START, clusterCounter);
+        }
 
-    private void generateDotEdges(GraphNode node, StringBuilder sb, String nodeLabel) {
-        if (node.edges.isEmpty()) {
-            sb.append(doubleTab).append(nodeLabel).append(" -> ").append("end").append(clusterCounter).append("\n");
-        } else {
-            for (GraphEdge edge : node.edges) {
-                String edgeNodeLabel = nodeLabels.containsKey(edge.getNode()) ? nodeLabels.get(edge.getNode()) : generateNewNodeLabel(edge.getNode());
-                sb.append(doubleTab).append(edgeNodeLabel).append(" [label=\"").append(sanitizeText(edge.getNode().text)).append("\", shape=").append(blockTypeToShape(edge.getNode().blockType)).append("]\n");
-                sb.append(doubleTab).append(nodeLabel).append(" -> ").append(edgeNodeLabel).append(" [label=\"").append(sanitizeText(edge.label)).append("\"");
+        while (depth >= 0) {
+            int node = stackNodes[depth];
+            int edge = stackEdges[depth];
+            if (edge >= graph.endEdge(node)) {
+                depth--;
+                continue;
+            }
+            stackEdges[depth] = edge + 1;
 
-                if (edge.isDead) {
-                    sb.append(", style=dotted, color=red]\n");
-                } else {
-                    sb.append("]\n");
-                }
+            // the root of a subgraph is drawn as its start node
+            int from = depth == 0 ? GraphSink.START : nodeLabels[node];
+            int target = graph.edgeTarget(edge);
+            int to = nodeLabel(target);
+            sink.node(to, graph.text(target), blockTypeToShape(graph.blockType(target)));
+            sink.edge(from, to, graph.edgeLabel(edge), graph.isEdgeDead(edge));
 
-                if (!visited.contains(edge.getNode())) {
-                    visited.add(edge.getNode());
-                    generateDotDefinitions(edge.getNode(), sb);
+            if (!visited.get(target)) {
+                visited.set(target);
+                if (graph.firstEdge(target) == graph.endEdge(target)) {
+                    sink.endEdge(to, clusterCounter);
+                } else {
+                    push(++depth, target);
                 }
             }
         }
     }
 
+    private void push(int depth, int node) {
+        if (depth == stackNodes.length) {
+            stackNodes = Arrays.copyOf(stackNodes, depth * 2);
+            stackEdges = Arrays.copyOf(stackEdges, depth * 2);
+        }
+        stackNodes[depth] = node;
+        stackEdges[depth] = graph.firstEdge(node);
+    }
+
     // generates a subgraph for an individual function call
-    private void generateSubGraph(GraphNode node, StringBuilder sb) {
-        visited.add(node);
-        // String nodeLabel = nodeLabels.containsKey(node) ? nodeLabels.get(node) : generateNewNodeLabel(node);
+    private void generateSubGraph(int node) throws IOException {
+        visited.set(node);
+        String clusterName = generateNewClusterLabel();
+        sink.beginSubGraph(clusterName, graph.text(node), clusterCounter);
+        generateEdges(node);
+        sink.endSubGraph();
+    }
 
-        sb.append(tab).append("subgraph ").append(generateNewClusterLabel()).append(" {\n");
-        sb.append(doubleTab).append("label=\"").append(sanitizeText(node.text)).append("\"\n");
-        sb.append(doubleTab).append("start").append(clusterCounter).append(" [shape = rectangle, style=filled, color=green, fontcolor=white, label=\"start\"]\n");
-        sb.append(doubleTab).append("end").append(clusterCounter).append(" [shape = rectangle, style=filled, color=red, fontcolor=white, label=\"end\"]\n");
+    private void generate(ControlFlowGraph graph, GraphSink sink) throws IOException {
+        this.graph = graph;
+        this.sink = sink;
+        this.nodeLabels = new int[graph.nodeCount()];
+        Arrays.fill(this.nodeLabels, -1);
+        this.visited = new BitSet(graph.nodeCount());
 
-        generateDotEdges(node, sb, "start" + clusterCounter);
-        sb.append(tab).append("}\n");
-    }
-    public String generateFullGraph(List<GraphNode> nodes) {
-        StringBuilder output = new StringBuilder("digraph {\n");
-        for (GraphNode node : nodes) {
-            generateSubGraph(node, output);
+        for (int i = 0; i < graph.rootCount(); i++) {
+            generateSubGraph(graph.root(i));
             visited.clear();
         }
-        output.append("}\n");
-        return output.toString();
     }
 
-    private String sanitizeText(String nodeText) {
-        // replace any quotation marks with \"
-        return nodeText.replaceAll("\"", "\\\\\"");
+    /**
+     * Builds the graphviz-java model of the graph, ready to be rendered without going through DOT text.
+     */
+    public MutableGraph buildFullGraph(ControlFlowGraph graph) {
+        ModelSink model = new ModelSink(graph.nodeCount());
+        try {
+            generate(graph, model);
+        } catch (IOException e) {
+            // Building the model does no IO
+            throw new UncheckedIOException(e);
+        }
+        return model.root;
+    }
+
+    /**
+     * Writes the DOT file for the graph. The writer is flushed but not closed.
+     */
+    public void writeFullGraph(ControlFlowGraph graph, Writer out) throws IOException {
+        out.write("digraph {\n");
+        generate(graph, new DotSink(out));
+        out.write("}\n");
+        out.flush();
+    }
+
+    /**
+     * Writes the DOT file for the graph as UTF-8. The stream is flushed but not closed.
+     */
+    public void writeFullGraph(ControlFlowGraph graph, OutputStream out) throws IOException {
+        writeFullGraph(graph, new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)));
+    }
+
+    public String generateFullGraph(List<GraphNode> nodes) {
+        return generateFullGraph(ControlFlowGraph.of(nodes));
+    }
+
+    public String generateFullGraph(ControlFlowGraph graph) {
+        StringWriter output = new StringWriter();
+        try {
+            writeFullGraph(graph, output);
+        } catch (IOException e) {
+            // StringWriter never throws
+            throw new UncheckedIOException(e);
+        }
+        return output.toString();
     }
 
     private String blockTypeToShape(BlockType type) {
@@ -107,4 +202,152 @@ public class GraphGenerator {
             default -> throw new IllegalArgumentException();
         };
     }
+
+    /**
+     * Writes DOT text.
+     */
+    private class DotSink implements GraphSink {
+        private final Writer out;
+        private int cluster;
+
+        DotSink(Writer out) {
+            this.out = out;
+        }
+
+        @Override
+        public void beginSubGraph(String clusterName, String label, int cluster) throws IOException {
+            this.cluster = cluster;
+            out.write(tab);
+            out.write("subgraph ");
+            out.write(clusterName);
+            out.write(" {\n");
+            out.write(doubleTab);
+            out.write("label=\"");
+            writeEscaped(label);
+            out.write("\"\n");
+            out.write(doubleTab);
+            out.write("start" + cluster + " [shape = rectangle, style=filled, color=green, fontcolor=white, label=\"start\"]\n");
+            out.write(doubleTab);
+            out.write("end" + cluster + " [shape = rectangle, style=filled, color=red, fontcolor=white, label=\"end\"]\n");
+        }
+
+        @Override
+        public void node(int number, String text, String shape) throws IOException {
+            out.write(doubleTab);
+            writeName(number);
+            out.write(" [label=\"");
+            writeEscaped(text);
+            out.write("\", shape=");
+            out.write(shape);
+            out.write("]\n");
+        }
+
+        @Override
+        public void edge(int from, int to, String label, boolean isDead) throws IOException {
+            out.write(doubleTab);
+            writeName(from);
+            out.write(" -> ");
+            writeName(to);
+            out.write(" [label=\"");
+            writeEscaped(label);
+            out.write(isDead ? "\", style=dotted, color=red]\n" : "\"]\n");
+        }
+
+        @Override
+        public void endEdge(int from, int cluster) throws IOException {
+            out.write(doubleTab);
+            writeName(from);
+            out.write(" -> end");
+            out.write(Integer.toString(cluster));
+            out.write("\n");
+        }
+
+        @Override
+        public void endSubGraph() throws IOException {
+            out.write(tab);
+            out.write("}\n");
+        }
+
+        private void writeName(int number) throws IOException {
+            if (number == START) {
+                out.write("start");
+                out.write(Integer.toString(cluster));
+            } else {
+                out.write("node");
+                out.write(Integer.toString(number));
+            }
+        }
+
+        // writes the text with any quotation marks replaced by \"
+        private void writeEscaped(String text) throws IOException {
+            int start = 0;
+            for (int i = 0; i < text.length(); i++) {
+                if (text.charAt(i) == '"') {
+                    out.write(text, start, i - start);
+                    out.write("\\\"");
+                    start = i + 1;
+                }
+            }
+            out.write(text, start, text.length() - start);
+        }
+    }
+
+    /**
+     * Builds the graphviz-java model, with the same attributes the DOT parser would set.
+     */
+    private static class ModelSink implements GraphSink {
+        private final MutableGraph root = mutGraph().setDirected(true);
+        private final MutableNode[] nodes;
+        private MutableGraph cluster;
+        private MutableNode start;
+        private MutableNode end;
+
+        ModelSink(int nodeCount) {
+            // DOT node numbers are handed out once per graph node, so there are never more of them than nodes
+            this.nodes = new MutableNode[nodeCount];
+        }
+
+        @Override
+        public void beginSubGraph(String clusterName, String label, int cluster) {
+            this.cluster = mutGraph(clusterName).setDirected(true);
+            this.cluster.graphAttrs().add("label", label);
+            this.start = mutNode("start" + cluster)
+                    .add(attrs(attr("shape", "rectangle"), attr("style", "filled"), attr("color", "green"),
+                            attr("fontcolor", "white"), attr("label", "start")));
+            this.end = mutNode("end" + cluster)
+                    .add(attrs(attr("shape", "rectangle"), attr("style", "filled"), attr("color", "red"),
+                            attr("fontcolor", "white"), attr("label", "end")));
+            this.cluster.add(start, end);
+            root.add(this.cluster);
+        }
+
+        @Override
+        public void node(int number, String text, String shape) {
+            if (nodes[number] == null) {
+                nodes[number] = mutNode("node" + number).add(attr("label", text), attr("shape", shape));
+                cluster.add(nodes[number]);
+            }
+        }
+
+        @Override
+        public void edge(int from, int to, String label, boolean isDead) {
+            Attributes<ForLink> attributes = isDead
+                    ? attrs(attr("label", label), attr("style", "dotted"), attr("color", "red"))
+                    : attr("label", label);
+            node(from).addLink(to(nodes[to]).with(attributes));
+        }
+
+        @Override
+        public void endEdge(int from, int cluster) {
+            node(from).addLink(end);
+        }
+
+        @Override
+        public void endSubGraph() {
+        }
+
+        private MutableNode node(int number) {
+            return number == START ? start : nodes[number];
+        }
+    }
 }
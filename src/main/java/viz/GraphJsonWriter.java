@@ -0,0 +1,91 @@
+package viz;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import graph.ControlFlowGraph;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.BitSet;
+
+/**
+ * Writes the graph as JSON for clients that lay it out themselves. Every node is written once with its id, block type
+ * and text, followed by one entry per method holding the edges reachable from that method:
+ * <pre>
+ * {"nodes": [{"id": 0, "type": "METHOD_DECL", "text": "foo()"}, ...],
+ *  "methods": [{"name": "foo()", "root": 0, "edges": [{"source": 0, "target": 1, "label": "", "isDead": false}, ...]}]}
+ * </pre>
+ * The output is generated as it is written, so no tree of the whole document is ever built.
+ */
+public class GraphJsonWriter {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    /**
+     * Writes the graph as UTF-8. The stream is flushed but not closed.
+     */
+    public void write(ControlFlowGraph graph, OutputStream out) throws IOException {
+        try (JsonGenerator json = JSON_FACTORY.createGenerator(out, JsonEncoding.UTF8)
+                .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)) {
+            write(graph, json);
+        }
+        out.flush();
+    }
+
+    /**
+     * Writes the graph as one JSON object into a document that is already being generated.
+     */
+    public void write(ControlFlowGraph graph, JsonGenerator json) throws IOException {
+        json.writeStartObject();
+
+        json.writeArrayFieldStart("nodes");
+        for (int node = 0; node < graph.nodeCount(); node++) {
+            json.writeStartObject();
+            json.writeNumberField("id", node);
+            json.writeStringField("type", graph.blockType(node).name());
+            json.writeStringField("text", graph.text(node));
+            json.writeEndObject();
+        }
+        json.writeEndArray();
+
+        json.writeArrayFieldStart("methods");
+        BitSet visited = new BitSet(graph.nodeCount());
+        int[] pending = new int[graph.nodeCount()];
+        for (int i = 0; i < graph.rootCount(); i++) {
+            int root = graph.root(i);
+            json.writeStartObject();
+            json.writeStringField("name", graph.text(root));
+            json.writeNumberField("root", root);
+            json.writeArrayFieldStart("edges");
+
+            // Each node enters the stack at most once, so it never needs more room than there are nodes
+            visited.clear();
+            visited.set(root);
+            int depth = 0;
+            pending[depth++] = root;
+            while (depth > 0) {
+                int node = pending[--depth];
+                for (int edge = graph.firstEdge(node); edge < graph.endEdge(node); edge++) {
+                    int target = graph.edgeTarget(edge);
+                    json.writeStartObject();
+                    json.writeNumberField("source", node);
+                    json.writeNumberField("target", target);
+                    json.writeStringField("label", graph.edgeLabel(edge));
+                    json.writeBooleanField("isDead", graph.isEdgeDead(edge));
+                    json.writeEndObject();
+                    if (!visited.get(target)) {
+                        visited.set(target);
+                        pending[depth++] = target;
+                    }
+                }
+            }
+
+            json.writeEndArray();
+            json.writeEndObject();
+        }
+        json.writeEndArray();
+
+        json.writeEndObject();
+    }
+}
@@ -0,0 +1,47 @@
+package viz;
+
+import graph.ControlFlowGraph;
+import utils.StageTimings;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Turns an analyzed graph into SVG. {@link RendererConfig} picks the implementation at startup.
+ */
+public interface GraphRenderer {
+
+    /**
+     * @throws RendererBusyException if the renderer stayed fully busy for its whole checkout timeout.
+     */
+    byte[] renderSvg(ControlFlowGraph graph) throws IOException;
+
+    /**
+     * Renders the graph and adds the time it took to the timings. Implementations that can tell writing the DOT apart
+     * from laying it out report both; by default the whole render counts as layout.
+     */
+    default byte[] renderSvg(ControlFlowGraph graph, StageTimings timings) throws IOException {
+        long layoutStart = System.nanoTime();
+        try {
+            return renderSvg(graph);
+        } finally {
+            timings.end(StageTimings.Stage.LAYOUT, layoutStart);
+        }
+    }
+
+    /**
+     * @return whether renders will no longer pay any start-up cost.
+     */
+    boolean isReady();
+
+    Map<String, Object> getStats();
+
+    /**
+     * Thrown when every engine or process slot stayed busy for the whole checkout timeout.
+     */
+    class RendererBusyException extends IOException {
+        public RendererBusyException(String message) {
+            super(message);
+        }
+    }
+}
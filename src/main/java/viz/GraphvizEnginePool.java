@@ -0,0 +1,184 @@
+package viz;
+
+import graph.BlockType;
+import graph.ControlFlowGraph;
+import graph.GraphEdge;
+import graph.GraphNode;
+import guru.nidi.graphviz.engine.Format;
+import guru.nidi.graphviz.engine.Graphviz;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import utils.StageTimings;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fixed set of threads that render graphs with Graphviz. The JavaScript engines behind graphviz-java keep one context
+ * per thread, and creating a context is slow, so every render runs on one of these threads and each of them is warmed
+ * up with a sample graph at startup. Callers check an engine out for the duration of a render and wait a bounded
+ * amount of time for one to become free.
+ */
+public class GraphvizEnginePool implements GraphRenderer {
+
+    private static final Logger log = LoggerFactory.getLogger(GraphvizEnginePool.class);
+
+    private final int size;
+    private final long checkoutTimeoutMillis;
+    private final ThreadPoolExecutor engines;
+    private final Semaphore available;
+    private final AtomicInteger warmedUp = new AtomicInteger();
+    private final AtomicLong renders = new AtomicLong();
+    private final AtomicLong checkoutTimeouts = new AtomicLong();
+
+    public GraphvizEnginePool(int size, long checkoutTimeoutMillis) {
+        this.size = size;
+        this.checkoutTimeoutMillis = checkoutTimeoutMillis;
+        this.available = new Semaphore(size, true);
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.engines = new ThreadPoolExecutor(size, size, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, "graphviz-engine-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        warmUp();
+    }
+
+    /**
+     * Renders one sample graph on every engine thread in the background, so that no request pays for creating a
+     * context. Each warm-up task waits for the others to start, which makes them land on different threads.
+     */
+    private void warmUp() {
+        GraphNode method = new GraphNode(BlockType.METHOD_DECL, "warmup()");
+        GraphNode conditional = new GraphNode(BlockType.IF, "if (x > 1)");
+        method.addEdge(new GraphEdge(conditional, "", false));
+        conditional.addEdge(new GraphEdge(new GraphNode(BlockType.STMT, "x = 1"), "then", true));
+        ControlFlowGraph sample = ControlFlowGraph.of(Arrays.asList(method));
+
+        CountDownLatch started = new CountDownLatch(size);
+        for (int i = 0; i < size; i++) {
+            engines.execute(() -> {
+                started.countDown();
+                try {
+                    started.await();
+                    render(sample);
+                    warmedUp.incrementAndGet();
+                } catch (Exception e) {
+                    log.warn("Could not warm up rendering engine on {}", Thread.currentThread().getName(), e);
+                }
+            });
+        }
+    }
+
+    /**
+     * Renders the graph on a pooled engine.
+     */
+    @Override
+    public byte[] renderSvg(ControlFlowGraph graph) throws IOException {
+        return renderSvg(graph, new StageTimings());
+    }
+
+    /**
+     * graphviz-java builds its model and lays it out in one go on the engine thread, so all of it counts as LAYOUT;
+     * waiting for a free engine is not counted at all.
+     */
+    @Override
+    public byte[] renderSvg(ControlFlowGraph graph, StageTimings timings) throws IOException {
+        try {
+            if (!available.tryAcquire(checkoutTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                checkoutTimeouts.incrementAndGet();
+                throw new RendererBusyException("No rendering engine became free within " + checkoutTimeoutMillis
+                        + " ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a rendering engine");
+        }
+
+        // The permit is held until the render itself is over, not just until this caller stops waiting for it, so
+        // that abandoned renders still count against the pool and never pile up in its queue. Whoever claims the
+        // task first releases it: the task when it starts, or the caller when it gives up before that
+        AtomicBoolean claimed = new AtomicBoolean();
+        long layoutStart = System.nanoTime();
+        Future<byte[]> future;
+        try {
+            future = engines.submit(() -> {
+                if (!claimed.compareAndSet(false, true)) {
+                    return null;
+                }
+                try {
+                    return render(graph);
+                } finally {
+                    available.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            available.release();
+            throw new IOException("Rendering engines have been shut down", e);
+        }
+        try {
+            byte[] svg = future.get();
+            renders.incrementAndGet();
+            return svg;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Error in rendering graph", e.getCause());
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            if (claimed.compareAndSet(false, true)) {
+                available.release();
+            }
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while rendering graph");
+        } finally {
+            timings.end(StageTimings.Stage.LAYOUT, layoutStart);
+        }
+    }
+
+    /**
+     * Renders on the calling thread, which is always one of the engine threads.
+     */
+    protected byte[] render(ControlFlowGraph graph) throws IOException {
+        ByteArrayOutputStream svgStream = new ByteArrayOutputStream();
+        Graphviz.fromGraph(new GraphGenerator().buildFullGraph(graph)).render(Format.SVG).toOutputStream(svgStream);
+        return svgStream.toByteArray();
+    }
+
+    /**
+     * @return whether every engine has rendered its warm-up graph.
+     */
+    @Override
+    public boolean isReady() {
+        return warmedUp.get() == size;
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("engine", "graphviz-java");
+        stats.put("ready", isReady());
+        stats.put("engines", size);
+        stats.put("warmedUp", warmedUp.get());
+        stats.put("available", available.availablePermits());
+        stats.put("renders", renders.get());
+        stats.put("checkoutTimeouts", checkoutTimeouts.get());
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        engines.shutdownNow();
+    }
+}
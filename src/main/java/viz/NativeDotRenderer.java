@@ -0,0 +1,195 @@
+package viz;
+
+import graph.ControlFlowGraph;
+import jakarta.annotation.PreDestroy;
+import utils.StageTimings;
+
+import java.io.*;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Renders with the native Graphviz `dot` binary. The DOT text is streamed into the stdin of a `dot -Tsvg` process and
+ * the SVG read back from its stdout, so no JVM thread ever runs the layout itself. At most a fixed number of processes
+ * run at once, and a process that exceeds the render timeout is killed.
+ * <p>
+ * Every render starts a process of its own. A pool of long-lived dot processes fed one graph after the other would
+ * save the start-up cost, but dot gives no reliable way to tell where one SVG document ends on its stdout and the next
+ * begins, so short-lived processes are used instead.
+ */
+public class NativeDotRenderer implements GraphRenderer {
+
+    private final String executable;
+    private final int size;
+    private final long checkoutTimeoutMillis;
+    private final long renderTimeoutMillis;
+    private final Semaphore slots;
+    private final ScheduledExecutorService watchdog;
+    private final AtomicLong renders = new AtomicLong();
+    private final AtomicLong renderTimeouts = new AtomicLong();
+    private final AtomicLong checkoutTimeouts = new AtomicLong();
+
+    public NativeDotRenderer(String executable, int size, long checkoutTimeoutMillis, long renderTimeoutMillis) {
+        this.executable = executable;
+        this.size = size;
+        this.checkoutTimeoutMillis = checkoutTimeoutMillis;
+        this.renderTimeoutMillis = renderTimeoutMillis;
+        this.slots = new Semaphore(size, true);
+        this.watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "dot-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Finds an executable on the PATH.
+     * @return the full path of the executable, or null if there is none.
+     */
+    public static String findOnPath(String name) {
+        String path = System.getenv("PATH");
+        if (path == null) {
+            return null;
+        }
+        boolean isWindows = System.getProperty("os.name", "").toLowerCase().startsWith("windows");
+        for (String directory : path.split(File.pathSeparator)) {
+            File file = new File(directory, isWindows ? name + ".exe" : name);
+            if (file.isFile() && file.canExecute()) {
+                return file.getAbsolutePath();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the output of `dot -V`, which also makes sure the binary actually runs.
+     */
+    public String version() throws IOException {
+        Process process = new ProcessBuilder(executable, "-V").redirectErrorStream(true).start();
+        try {
+            process.getOutputStream().close();
+            // The version line is far smaller than a pipe buffer, so dot can exit before anyone reads it. Waiting
+            // first means a dot that hangs is killed after the timeout rather than blocking the read forever
+            if (!process.waitFor(renderTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new IOException(executable + " -V did not finish within " + renderTimeoutMillis + " ms");
+            }
+            String version = new String(process.getInputStream().readAllBytes()).trim();
+            if (process.exitValue() != 0) {
+                throw new IOException(executable + " -V failed: " + version);
+            }
+            return version;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while running " + executable);
+        } finally {
+            process.destroyForcibly();
+        }
+    }
+
+    @Override
+    public byte[] renderSvg(ControlFlowGraph graph) throws IOException {
+        return renderSvg(graph, new StageTimings());
+    }
+
+    /**
+     * Writing the graph to dot counts as the DOT stage; waiting for dot to lay it out and write the SVG is LAYOUT.
+     */
+    @Override
+    public byte[] renderSvg(ControlFlowGraph graph, StageTimings timings) throws IOException {
+        try {
+            if (!slots.tryAcquire(checkoutTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                checkoutTimeouts.incrementAndGet();
+                throw new RendererBusyException("No dot process slot became free within " + checkoutTimeoutMillis
+                        + " ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a dot process slot");
+        }
+
+        try {
+            byte[] svg = render(graph, timings);
+            renders.incrementAndGet();
+            return svg;
+        } finally {
+            slots.release();
+        }
+    }
+
+    private byte[] render(ControlFlowGraph graph, StageTimings timings) throws IOException {
+        // dot warns about every unknown shape on stderr; nobody reads it, so it must not fill up the pipe
+        Process process = new ProcessBuilder(executable, "-Tsvg")
+                .redirectError(ProcessBuilder.Redirect.DISCARD)
+                .start();
+        AtomicBoolean timedOut = new AtomicBoolean();
+        ScheduledFuture<?> kill = watchdog.schedule(() -> {
+            timedOut.set(true);
+            process.destroyForcibly();
+        }, renderTimeoutMillis, TimeUnit.MILLISECONDS);
+
+        byte[] svg = null;
+        int exitCode = -1;
+        try {
+            // dot reads the whole graph before it writes anything, so writing first and then reading cannot block
+            long dotStart = System.nanoTime();
+            try (OutputStream stdin = process.getOutputStream()) {
+                new GraphGenerator().writeFullGraph(graph, stdin);
+            }
+            timings.end(StageTimings.Stage.DOT, dotStart);
+            long layoutStart = System.nanoTime();
+            try (InputStream stdout = process.getInputStream()) {
+                svg = stdout.readAllBytes();
+            }
+            exitCode = process.waitFor();
+            timings.end(StageTimings.Stage.LAYOUT, layoutStart);
+        } catch (IOException e) {
+            if (!timedOut.get()) {
+                throw e;
+            }
+            // Killing the process closed its pipes under us, reported below as a timeout
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for dot");
+        } finally {
+            kill.cancel(false);
+            process.destroyForcibly();
+        }
+
+        if (timedOut.get()) {
+            renderTimeouts.incrementAndGet();
+            throw new IOException("dot did not finish within " + renderTimeoutMillis + " ms");
+        }
+        if (exitCode != 0) {
+            throw new IOException("dot exited with code " + exitCode);
+        }
+        return svg;
+    }
+
+    @Override
+    public boolean isReady() {
+        // A new process per render has nothing to warm up
+        return true;
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("engine", "native");
+        stats.put("executable", executable);
+        stats.put("ready", isReady());
+        stats.put("processes", size);
+        stats.put("available", slots.availablePermits());
+        stats.put("renders", renders.get());
+        stats.put("renderTimeouts", renderTimeouts.get());
+        stats.put("checkoutTimeouts", checkoutTimeouts.get());
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        watchdog.shutdownNow();
+    }
+}
@@ -0,0 +1,73 @@
+package viz;
+
+import org.springframework.stereotype.Component;
+import utils.StageTimings;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Latency of every pipeline stage since startup. Each stage keeps one histogram per size of input and number of
+ * methods, because a slow stage on a large input says nothing about the same stage on a small one.
+ */
+@Component
+public class PipelineMetrics {
+
+    private static final int[] INPUT_SIZE_LIMITS = {1024, 10 * 1024, 100 * 1024};
+    private static final String[] INPUT_SIZE_NAMES = {"<1KiB", "1-10KiB", "10-100KiB", ">=100KiB"};
+    private static final int[] METHOD_COUNT_LIMITS = {1, 2, 6, 21};
+    private static final String[] METHOD_COUNT_NAMES = {"0", "1", "2-5", "6-20", ">20"};
+
+    private record Key(StageTimings.Stage stage, int inputSize, int methodCount) {
+    }
+
+    private final Map<Key, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+    /**
+     * Adds the time of each of the given stages that ran, tagged with the input described by the timings.
+     */
+    public void record(StageTimings timings, StageTimings.Stage... stages) {
+        int inputSize = bucketOf(timings.getInputLength(), INPUT_SIZE_LIMITS);
+        int methodCount = bucketOf(timings.getMethodCount(), METHOD_COUNT_LIMITS);
+        for (StageTimings.Stage stage : stages) {
+            if (timings.ran(stage)) {
+                histograms.computeIfAbsent(new Key(stage, inputSize, methodCount), k -> new LatencyHistogram())
+                        .record(timings.nanos(stage));
+            }
+        }
+    }
+
+    private static int bucketOf(int value, int[] limits) {
+        int bucket = 0;
+        while (bucket < limits.length && value >= limits[bucket]) {
+            bucket++;
+        }
+        return bucket;
+    }
+
+    /**
+     * @return one entry per stage, input size and method count that has been seen, in pipeline order.
+     */
+    public List<Map<String, Object>> getStats() {
+        List<Key> keys = new ArrayList<>(histograms.keySet());
+        keys.sort(Comparator.comparing(Key::stage).thenComparingInt(Key::inputSize).thenComparingInt(Key::methodCount));
+        List<Map<String, Object>> stats = new ArrayList<>();
+        for (Key key : keys) {
+            LatencyHistogram histogram = histograms.get(key);
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("stage", key.stage().id());
+            entry.put("inputSize", INPUT_SIZE_NAMES[key.inputSize()]);
+            entry.put("methods", METHOD_COUNT_NAMES[key.methodCount()]);
+            entry.put("count", histogram.count());
+            entry.put("p50Millis", histogram.percentileMillis(50));
+            entry.put("p95Millis", histogram.percentileMillis(95));
+            entry.put("p99Millis", histogram.percentileMillis(99));
+            stats.add(entry);
+        }
+        return stats;
+    }
+}
@@ -1,47 +1,56 @@
 package viz;
 
-import com.github.javaparser.StaticJavaParser;
+import com.github.javaparser.JavaParser;
+import com.github.javaparser.ParseProblemException;
+import com.github.javaparser.ParseResult;
 import com.github.javaparser.ast.CompilationUnit;
 import com.github.javaparser.ast.body.MethodDeclaration;
 import com.github.javaparser.ast.body.TypeDeclaration;
-import com.github.javaparser.ast.visitor.VoidVisitor;
-import com.github.javaparser.symbolsolver.JavaSymbolSolver;
-import com.github.javaparser.symbolsolver.resolution.typesolvers.CombinedTypeSolver;
-import com.github.javaparser.symbolsolver.resolution.typesolvers.JavaParserTypeSolver;
-import com.github.javaparser.symbolsolver.resolution.typesolvers.ReflectionTypeSolver;
+import graph.ControlFlowGraph;
 import graph.GraphNode;
 import graph.StateWrapper;
-import guru.nidi.graphviz.engine.Format;
-import guru.nidi.graphviz.engine.Graphviz;
-import guru.nidi.graphviz.model.MutableGraph;
-import guru.nidi.graphviz.parse.Parser;
-import visitor.MethodVisitor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import utils.StageTimings;
+import visitor.AnalysisCancelledException;
+import visitor.Cancellation;
+import visitor.MethodAnalysisTask;
 
-import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileWriter;
-import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
 import java.util.*;
 
 public class ProjectGenerator {
 
-    public ProjectGenerator(String inputCode) {
-        // Configure type solvers
-        ReflectionTypeSolver reflectionTypeSolver = new ReflectionTypeSolver();
+    private static final Logger log = LoggerFactory.getLogger(ProjectGenerator.class);
 
-        // Combine the type solvers
-        CombinedTypeSolver combinedTypeSolver = new CombinedTypeSolver();
-        combinedTypeSolver.add(reflectionTypeSolver);
+    // Analysis result for this request only; rendering it is up to the caller
+    private ControlFlowGraph graph;
 
-        // Configure symbol resolver with the combined type solver
-        JavaSymbolSolver symbolSolver = new JavaSymbolSolver(combinedTypeSolver);
-        StaticJavaParser.getParserConfiguration().setSymbolResolver(symbolSolver);
+    /**
+     * @param javaParser - parser with a symbol solver already configured, must not be shared between threads.
+     */
+    public ProjectGenerator(String inputCode, JavaParser javaParser) {
+        this(inputCode, javaParser, Cancellation.NONE);
+    }
+
+    public ProjectGenerator(String inputCode, JavaParser javaParser, Cancellation cancellation) {
+        this(inputCode, javaParser, cancellation, new StageTimings());
+    }
 
+    /**
+     * @param cancellation - stops the analysis early.
+     * @param timings - receives the time spent in each stage of the analysis.
+     * @throws AnalysisCancelledException if the analysis was cancelled or ran past its deadline.
+     * @throws RuntimeException if the input parsed but could not be analyzed.
+     */
+    public ProjectGenerator(String inputCode, JavaParser javaParser, Cancellation cancellation, StageTimings timings) {
         try {
-//            CompilationUnit cu = StaticJavaParser.parse(Files.newInputStream(Paths.get(FILE_PATH)));
-            CompilationUnit cu = StaticJavaParser.parse(inputCode);
+            long parseStart = System.nanoTime();
+            ParseResult<CompilationUnit> parseResult = javaParser.parse(inputCode);
+            timings.end(StageTimings.Stage.PARSE, parseStart);
+            if (!parseResult.isSuccessful() || parseResult.getResult().isEmpty()) {
+                throw new ParseProblemException(parseResult.getProblems());
+            }
+            CompilationUnit cu = parseResult.getResult().get();
             Set<MethodDeclaration> methodDeclarations = new HashSet<>();
             List<TypeDeclaration<?>> types = cu.getTypes();
             for (int i = 0; i < types.size(); i++) {
@@ -51,26 +60,28 @@ public class ProjectGenerator {
 
             List<GraphNode> nodes = new ArrayList<>();
             StateWrapper init = new StateWrapper(nodes, new Stack<>());
-            VoidVisitor<StateWrapper> methodVisitor = new MethodVisitor(methodDeclarations);
-            methodVisitor.visit(cu, init);
+            long visitStart = System.nanoTime();
+            MethodAnalysisTask.analyzeAll(cu, methodDeclarations, init, cancellation, timings);
+            timings.end(StageTimings.Stage.VISIT, visitStart);
 
-            System.out.println("=====================================================================");
-            GraphGenerator generator = new GraphGenerator();
-            String output = generator.generateFullGraph(nodes);
-            System.out.println("=====================================================================");
-            try {
-                MutableGraph g = new Parser().read(output); // Reads and a parses a .dot file
-                Graphviz.fromGraph(g).render(Format.SVG).toFile(new File("src/main/java/viz/generatedGraph.svg"));
-            } catch (IOException e) {
-                System.out.println("Error in generating graph");
-            }
-            System.out.println("Generation of graph is complete");
-            System.out.println("=====================================================================");
-
-
-        } catch (Exception e) {
-            System.out.println("Error in parsing graph");
-//            e.printStackTrace();
+            graph = ControlFlowGraph.of(nodes);
+            // Drop the linked graph as soon as it is copied; nothing reads it after this
+            nodes.clear();
+        } catch (ParseProblemException e) {
+            log.debug("Error in parsing graph", e);
+        } catch (RuntimeException e) {
+            // Exceptions from other ForkJoin threads may come back wrapped, so ask the cancellation itself
+            cancellation.check();
+            // Anything else is a bug in the analysis, not in the input
+            log.warn("Error in analyzing graph", e);
+            throw e;
         }
     }
+
+    /**
+     * Returns the analyzed graph, or null if the input could not be parsed.
+     */
+    public ControlFlowGraph getGraph() {
+        return graph;
+    }
 }
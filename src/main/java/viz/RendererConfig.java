@@ -0,0 +1,44 @@
+package viz;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.IOException;
+
+/**
+ * Picks the renderer at startup: the native `dot` binary when one is installed and runs, otherwise the GraalJS engines
+ * bundled with graphviz-java.
+ */
+@Configuration
+public class RendererConfig {
+
+    private static final Logger log = LoggerFactory.getLogger(RendererConfig.class);
+
+    @Bean
+    public GraphRenderer graphRenderer(@Value("${graph.render.dot-executable:}") String dotExecutable,
+                                       @Value("${graph.render.processes:0}") int processes,
+                                       @Value("${graph.render.engines:2}") int engines,
+                                       @Value("${graph.render.checkout-timeout-ms:10000}") long checkoutTimeoutMillis,
+                                       @Value("${graph.render.timeout-ms:30000}") long renderTimeoutMillis) {
+        String executable = dotExecutable.isEmpty() ? NativeDotRenderer.findOnPath("dot") : dotExecutable;
+        if (executable != null) {
+            // dot is single threaded, so by default run one process per core
+            int size = processes > 0 ? processes : Runtime.getRuntime().availableProcessors();
+            NativeDotRenderer renderer = new NativeDotRenderer(executable, size, checkoutTimeoutMillis,
+                    renderTimeoutMillis);
+            try {
+                String version = renderer.version();
+                log.info("Rendering with native {} ({}), {} processes", version, executable, size);
+                return renderer;
+            } catch (IOException e) {
+                log.warn("Could not run {}: {}", executable, e.getMessage());
+                renderer.shutdown();
+            }
+        }
+        log.info("Rendering with graphviz-java JavaScript engines, {} threads", engines);
+        return new GraphvizEnginePool(engines, checkoutTimeoutMillis);
+    }
+}
@@ -0,0 +1,116 @@
+package viz;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Shares one computation between every caller that asks for the same key while it is running. Each caller gets a
+ * future of its own: cancelling it only detaches that caller, and the computation itself is cancelled once every
+ * caller has detached. Finished computations are forgotten, so caching their results is up to the caller.
+ */
+public class SingleFlight<T> {
+
+    private final Map<String, Flight> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong started = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * @param start - starts the computation, only called if none is running for the key.
+     * @return a future for this caller alone.
+     */
+    public CompletableFuture<T> join(String key, Supplier<CompletableFuture<T>> start) {
+        Flight created = new Flight(key);
+        Flight flight = inFlight.compute(key, (k, existing) -> existing != null && existing.attach() ? existing : created);
+
+        if (flight == created) {
+            started.incrementAndGet();
+            // Started outside of compute, because the computation may finish and remove itself right away
+            try {
+                flight.start(start.get());
+            } catch (RuntimeException e) {
+                inFlight.remove(key, flight);
+                flight.shared.completeExceptionally(e);
+            }
+        } else {
+            coalesced.incrementAndGet();
+        }
+
+        CompletableFuture<T> waiter = new CompletableFuture<>();
+        flight.shared.whenComplete((result, e) -> {
+            if (e != null) {
+                waiter.completeExceptionally(e);
+            } else {
+                waiter.complete(result);
+            }
+        });
+        waiter.whenComplete((result, e) -> {
+            if (waiter.isCancelled()) {
+                flight.detach();
+            }
+        });
+        return waiter;
+    }
+
+    public Map<String, Long> getStats() {
+        return Map.of("inFlight", (long) inFlight.size(),
+                "started", started.get(),
+                "coalesced", coalesced.get());
+    }
+
+    private class Flight {
+        private final String key;
+        private final CompletableFuture<T> shared = new CompletableFuture<>();
+        private CompletableFuture<T> source; // Guarded by this
+        private int waiters = 1; // Guarded by this; starts with the caller that created it
+        private boolean abandoned; // Guarded by this
+
+        Flight(String key) {
+            this.key = key;
+        }
+
+        synchronized boolean attach() {
+            if (abandoned) {
+                return false;
+            }
+            waiters++;
+            return true;
+        }
+
+        void start(CompletableFuture<T> computation) {
+            synchronized (this) {
+                source = computation;
+            }
+            computation.whenComplete((result, e) -> {
+                inFlight.remove(key, this);
+                if (e != null) {
+                    shared.completeExceptionally(e);
+                } else {
+                    shared.complete(result);
+                }
+            });
+            synchronized (this) {
+                if (abandoned) {
+                    computation.cancel(true);
+                }
+            }
+        }
+
+        void detach() {
+            CompletableFuture<T> toCancel;
+            synchronized (this) {
+                if (--waiters > 0) {
+                    return;
+                }
+                abandoned = true;
+                toCancel = source;
+            }
+            inFlight.remove(key, this);
+            if (toCancel != null) {
+                toCancel.cancel(true);
+            }
+        }
+    }
+}
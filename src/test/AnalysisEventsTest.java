@@ -0,0 +1,74 @@
+import com.github.javaparser.JavaParser;
+import com.github.javaparser.ParserConfiguration;
+import com.github.javaparser.symbolsolver.JavaSymbolSolver;
+import com.github.javaparser.symbolsolver.resolution.typesolvers.ReflectionTypeSolver;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Test;
+import viz.ProjectGenerator;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class AnalysisEventsTest {
+
+    private static final String INPUT = "public class Test {\n"
+            + "    void foo() {\n"
+            + "        int x = 1;\n"
+            + "        if (x > 0) {\n"
+            + "            while (x < 3) { x++; }\n"
+            + "        }\n"
+            + "    }\n"
+            + "    void boo() { foo(); }\n"
+            + "}";
+
+    private static List<RecordedEvent> record(String... enabledEvents) throws IOException {
+        Path file = Files.createTempFile("analysis", ".jfr");
+        try (Recording recording = new Recording()) {
+            for (String event : enabledEvents) {
+                recording.enable(event);
+            }
+            recording.start();
+            JavaSymbolSolver symbolSolver = new JavaSymbolSolver(new ReflectionTypeSolver());
+            new ProjectGenerator(INPUT, new JavaParser(new ParserConfiguration().setSymbolResolver(symbolSolver)));
+            recording.stop();
+            recording.dump(file);
+            List<RecordedEvent> events = new ArrayList<>();
+            for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+                if (event.getEventType().getName().startsWith("visitor.")) {
+                    events.add(event);
+                }
+            }
+            return events;
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testEventsAreDisabledByDefault() throws IOException {
+        assertTrue(record().isEmpty());
+    }
+
+    @Test
+    public void testVisitEventsCarryLinesAndDepth() throws IOException {
+        List<RecordedEvent> events = record("visitor.IfVisit", "visitor.WhileVisit");
+        List<String> seen = new ArrayList<>();
+        for (RecordedEvent event : events) {
+            seen.add(event.getEventType().getName() + " " + event.getInt("beginLine") + "-"
+                    + event.getInt("endLine") + " " + event.getInt("depth"));
+        }
+        // foo is visited once on its own and once more when inlined into boo, one level deeper
+        assertEquals(4, seen.size());
+        assertTrue(seen.toString(), seen.contains("visitor.IfVisit 4-6 0"));
+        assertTrue(seen.toString(), seen.contains("visitor.WhileVisit 5-5 1"));
+        assertTrue(seen.toString(), seen.contains("visitor.IfVisit 4-6 1"));
+        assertTrue(seen.toString(), seen.contains("visitor.WhileVisit 5-5 2"));
+    }
+}
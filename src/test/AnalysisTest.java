@@ -1,3 +1,4 @@
+import com.github.javaparser.ParserConfiguration;
 import com.github.javaparser.StaticJavaParser;
 import com.github.javaparser.ast.CompilationUnit;
 import com.github.javaparser.ast.body.MethodDeclaration;
@@ -13,6 +14,7 @@ import graph.GraphNode;
 import graph.StateWrapper;
 import org.chocosolver.solver.constraints.nary.nvalue.amnv.graph.G;
 import org.junit.Test;
+import visitor.MethodAnalysisTask;
 import visitor.MethodVisitor;
 
 import java.io.IOException;
@@ -34,7 +36,8 @@ public class AnalysisTest {
 
         // Configure symbol resolver with the combined type solver
         JavaSymbolSolver symbolSolver = new JavaSymbolSolver(combinedTypeSolver);
-        StaticJavaParser.getParserConfiguration().setSymbolResolver(symbolSolver);
+        StaticJavaParser.getParserConfiguration().setSymbolResolver(symbolSolver)
+                .setLanguageLevel(ParserConfiguration.LanguageLevel.JAVA_17);
 
         try {
             CompilationUnit cu = StaticJavaParser.parse(Files.newInputStream(Paths.get(filePath)));
@@ -935,6 +938,57 @@ public class AnalysisTest {
         }
     }
 
+    @Test
+    public void testLongVariableIsNotFoldedAsInt() {
+        String filePath = "src/test/testClasses/WiderNumericTypesTest.java";
+        List<GraphNode> res = parseASTToGraph(filePath);
+        GraphNode resNode = res.get(0);
+
+        /** Expected structure:
+         * [longOverflow] {method_decl}
+         *  -> [long x = 2147483647] {stmt}
+         *      -> [if (x + 1 > 0)] {conditional}
+         *          -> [println("no overflow")] {method_call} {then}
+         *          -> [println("overflow")] {method_call} {else}
+         **/
+
+        try {
+            GraphNode aIf = resNode.getChild(0).getChild(0);
+            compareNodeHelper(new GraphNode(BlockType.IF, "if (x + 1 > 0)"), aIf);
+            GraphEdge aThen = aIf.edges.get(0);
+            assertEquals("then", aThen.label);
+            assertFalse("A long does not overflow at Integer.MAX_VALUE + 1", aThen.isDead);
+        } catch (Exception e) {
+            fail("Produced incorrect tree." + e.toString());
+        }
+    }
+
+    @Test
+    public void testDoubleVariableIsNotFoldedAsInt() {
+        String filePath = "src/test/testClasses/WiderNumericTypesTest.java";
+        List<GraphNode> res = parseASTToGraph(filePath);
+        GraphNode resNode = res.get(1);
+
+        /** Expected structure:
+         * [doubleDivision] {method_decl}
+         *  -> [double d = 0] {stmt}
+         *      -> [d = 5] {stmt}
+         *          -> [if (d / 2 == 2)] {conditional}
+         *              -> [println("integer division")] {method_call} {then}
+         *              -> [println("floating point division")] {method_call} {else}
+         **/
+
+        try {
+            GraphNode aIf = resNode.getChild(0).getChild(0).getChild(0);
+            compareNodeHelper(new GraphNode(BlockType.IF, "if (d / 2 == 2)"), aIf);
+            GraphEdge aElse = aIf.edges.get(1);
+            assertEquals("else", aElse.label);
+            assertFalse("5.0 / 2 is 2.5, not 2", aElse.isDead);
+        } catch (Exception e) {
+            fail("Produced incorrect tree." + e.toString());
+        }
+    }
+
 //    @Test
 //    public void testSomething(){
 //        // Configure type solvers
@@ -1043,6 +1097,61 @@ public class AnalysisTest {
         }
     }
 
+    @Test
+    public void testSwitchMultipleLabels() {
+        String filePath = "src/test/testClasses/SwitchExpressionTest.java";
+        List<GraphNode> res = parseASTToGraph(filePath);
+        GraphNode resNode = res.get(0);
+
+        /** Expected structure:
+         * [MultiLabelSwitch] {METHOD_DECL}
+         *      -> [int i = 2] {STMT}
+         *          -> [switch (i)] {SWITCH}
+         *             -> "case 1, 2" [i = 1] {STMT}
+         *             -> "case 3" (dead) [i = 3] {STMT}
+         *             -> "default" [i = 0] {STMT}
+         **/
+
+        try {
+            GraphNode aSwitchSTMT = resNode.getChild(0).getChild(0);
+            compareNodeHelper(new GraphNode(BlockType.SWITCH, "switch(i)"), aSwitchSTMT);
+
+            GraphEdge aCase12 = aSwitchSTMT.edges.get(0);
+            assertEquals("case 1, 2", aCase12.label);
+            assertFalse("A case matching any of its labels is live", aCase12.isDead);
+            compareNodeHelper(new GraphNode(BlockType.STMT, "i = 1"), aCase12.getNode());
+
+            GraphEdge aCase3 = aSwitchSTMT.edges.get(1);
+            assertEquals("case 3", aCase3.label);
+            assertTrue(aCase3.isDead);
+
+            assertEquals("default", aSwitchSTMT.edges.get(2).label);
+        } catch (Exception e) {
+            fail("Produced incorrect tree." + e.toString());
+        }
+    }
+
+    @Test
+    public void testSwitchExpression() {
+        String filePath = "src/test/testClasses/SwitchExpressionTest.java";
+        List<GraphNode> res = parseASTToGraph(filePath);
+        GraphNode resNode = res.get(1);
+
+        /** Expected structure:
+         * [ArrowSwitch] {METHOD_DECL}
+         *      -> [int i = switch (x) {...}] {STMT}
+         *          -> ...
+         *              -> [i = 20] {STMT}
+         **/
+
+        compareNodeHelper(new GraphNode(BlockType.METHOD_DECL, "ArrowSwitch(int x)"), resNode);
+        GraphNode last = resNode;
+        while (!last.edges.isEmpty()) {
+            last = last.getChild(last.edges.size() - 1);
+        }
+        compareNodeHelper(new GraphNode(BlockType.STMT, "i = 20"), last);
+    }
+
     @Test
     public void testMethodInAnotherFile() {
         String filePath = "src/test/testClasses/MethodInAnotherFileTest.java";
@@ -1072,6 +1181,120 @@ public class AnalysisTest {
         }
     }
 
+    @Test
+    public void testRepeatedMethodCall() {
+        String filePath = "src/test/testClasses/RepeatedMethodCallTest.java";
+        List<GraphNode> res = parseASTToGraph(filePath);
+        GraphNode fooNode = res.get(0);
+
+        /** Expected structure:
+         *  [foo] {method_decl}
+         *     -> [boo(8)] {method_call}
+         *        -> [if (x > 1)] {conditional}
+         *           -> [println("X IS GREATER THAN 1!")] {method_call} --> LINKS TO *A*
+         *           -> *A* [int y = x] {stmt}
+         *        -> [boo(8)] {method_call} (same subgraph, built from the first call)
+         *           -> ...
+         *              -> [boo(0)] {method_call}
+         *                 -> [if (x > 1)] {conditional}
+         *                    -> [println("X IS GREATER THAN 1!")] {method_call} {Dead}
+         *                    -> [int y = x] {stmt}
+         */
+
+        GraphNode foo = new GraphNode(BlockType.METHOD_DECL, "foo()");
+        GraphNode[] calls = new GraphNode[3];
+        String[] arguments = {"8", "8", "0"};
+        List<GraphNode> parents = Arrays.asList(foo);
+        for (int i = 0; i < calls.length; i++) {
+            calls[i] = new GraphNode(BlockType.METHOD_CALL, "boo(" + arguments[i] + ")");
+            boolean thenIsDead = arguments[i].equals("0");
+            GraphNode conditional = new GraphNode(BlockType.IF, "if (x > 1)");
+            GraphNode print = new GraphNode(BlockType.METHOD_CALL, "System.out.println(\"X IS GREATER THAN 1!\")");
+            GraphNode assignment = new GraphNode(BlockType.STMT, "int y = x");
+
+            for (GraphNode parent : parents) {
+                parent.addEdge(new GraphEdge(calls[i], parent == foo ? "" : parent.blockType == BlockType.IF ? "else" : "", false));
+            }
+            calls[i].addEdge(new GraphEdge(conditional, "", false));
+            conditional.addEdge(new GraphEdge(print, "then", thenIsDead));
+            print.addEdge(new GraphEdge(assignment, "", thenIsDead));
+            conditional.addEdge(new GraphEdge(assignment, "else", false));
+
+            // The call after this one continues from the end of the if statement
+            parents = Arrays.asList(print, conditional);
+        }
+
+        try {
+            compareGraphHelper(foo, fooNode);
+        } catch (Exception e) {
+            fail("Produced incorrect tree." + e.toString());
+        }
+
+        // The repeated call gets its own copy of the subgraph
+        GraphNode firstCall = fooNode.getChild(0);
+        GraphNode secondCall = firstCall.getChild(0).getChild(2);
+        assertEquals("boo(8)", secondCall.text);
+        assertNotSame(firstCall.getChild(0), secondCall.getChild(0));
+    }
+
+    @Test
+    public void testMethodCallSharedBetweenMethods() {
+        String filePath = "src/test/testClasses/SharedMethodCallTest.java";
+        List<GraphNode> res = parseASTToGraph(filePath);
+
+        /** Expected structure of foo, where the call back to foo is not entered again:
+         *  [foo] {method_decl}
+         *     -> [boo(8)] {method_call}
+         *        -> [if (x > 1)] {conditional}
+         *           -> [foo()] {method_call}
+         *              -> [int y = x] {stmt}
+         *
+         * bar and baz are not being inlined by boo, so there foo() is entered, and only its own call to boo is not
+         *           -> [foo()] {method_call}
+         *              -> [boo(8)] {method_call}
+         *              -> [int y = x] {stmt}
+         */
+
+        GraphNode fooCall = res.get(0).getChild(0).getChild(0).getChild(0);
+        assertEquals("foo()", fooCall.text);
+        assertEquals("int y = x", fooCall.getChild(0).text);
+
+        for (int i = 1; i <= 2; i++) {
+            GraphNode call = res.get(i).getChild(0).getChild(0).getChild(0);
+            assertEquals("foo()", call.text);
+            assertEquals("boo(8)", call.getChild(0).text);
+            assertTrue(call.getChild(0).edges.isEmpty());
+        }
+
+        // baz reuses what bar recorded, as its own copy
+        compareGraphHelper(res.get(1).getChild(0), res.get(2).getChild(0));
+        assertNotSame(res.get(1).getChild(0).getChild(0), res.get(2).getChild(0).getChild(0));
+    }
+
+    @Test
+    public void testParallelAnalysisMatchesSequential() throws IOException {
+        String[] filePaths = {"src/test/testClasses/MethodCallWithArguments.java",
+                "src/test/testClasses/SwitchTest.java", "src/test/testClasses/RepeatedMethodCallTest.java",
+                "src/test/testClasses/SharedMethodCallTest.java"};
+        for (String filePath : filePaths) {
+            List<GraphNode> expected = parseASTToGraph(filePath);
+
+            CompilationUnit cu = StaticJavaParser.parse(Files.newInputStream(Paths.get(filePath)));
+            Set<MethodDeclaration> methodDeclarations = new HashSet<>();
+            for (TypeDeclaration<?> type : cu.getTypes()) {
+                methodDeclarations.addAll(type.getMethods());
+            }
+            List<GraphNode> actual = new ArrayList<>();
+            MethodAnalysisTask.analyzeAll(cu, methodDeclarations, new StateWrapper(actual, new Stack<>()));
+
+            // Roots come back in source order, each with the same graph as the sequential visitor
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                compareGraphHelper(expected.get(i), actual.get(i));
+            }
+        }
+    }
+
     @Test
     public void customTest() {
         String filePath =  "src/test/testClasses/Custom.java";
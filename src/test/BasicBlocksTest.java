@@ -0,0 +1,98 @@
+import graph.BasicBlocks;
+import graph.BlockType;
+import graph.ControlFlowGraph;
+import graph.GraphEdge;
+import graph.GraphNode;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class BasicBlocksTest {
+
+    @Test
+    public void testMergesStraightLineStatements() {
+        GraphNode method = new GraphNode(BlockType.METHOD_DECL, "foo()");
+        GraphNode first = new GraphNode(BlockType.STMT, "int x = 0");
+        GraphNode second = new GraphNode(BlockType.METHOD_CALL, "System.out.println(x)");
+        GraphNode third = new GraphNode(BlockType.STMT, "x = 2");
+        GraphNode ret = new GraphNode(BlockType.RETURN, "return x;");
+        method.addEdge(new GraphEdge(first, "", false));
+        first.addEdge(new GraphEdge(second, "", false));
+        second.addEdge(new GraphEdge(third, "", false));
+        third.addEdge(new GraphEdge(ret, "", false));
+
+        ControlFlowGraph graph = BasicBlocks.coalesce(ControlFlowGraph.of(Arrays.asList(method)));
+        assertEquals(3, graph.nodeCount());
+        assertEquals(2, graph.edgeCount());
+
+        int block = graph.edgeTarget(graph.firstEdge(graph.root(0)));
+        assertEquals(BlockType.STMT, graph.blockType(block));
+        assertEquals("int x = 0\nSystem.out.println(x)\nx = 2", graph.text(block));
+        assertEquals(BlockType.RETURN, graph.blockType(graph.edgeTarget(graph.firstEdge(block))));
+    }
+
+    @Test
+    public void testStopsAtBranchesAndJoins() {
+        GraphNode method = new GraphNode(BlockType.METHOD_DECL, "foo()");
+        GraphNode before = new GraphNode(BlockType.STMT, "int x = 0");
+        GraphNode conditional = new GraphNode(BlockType.IF, "if (x > 1)");
+        GraphNode then = new GraphNode(BlockType.STMT, "x = 1");
+        GraphNode join = new GraphNode(BlockType.STMT, "x++");
+        GraphNode after = new GraphNode(BlockType.STMT, "x--");
+        method.addEdge(new GraphEdge(before, "", false));
+        before.addEdge(new GraphEdge(conditional, "", false));
+        conditional.addEdge(new GraphEdge(then, "then", false));
+        conditional.addEdge(new GraphEdge(join, "else", false));
+        then.addEdge(new GraphEdge(join, "", false));
+        join.addEdge(new GraphEdge(after, "", false));
+
+        ControlFlowGraph graph = BasicBlocks.coalesce(ControlFlowGraph.of(Arrays.asList(method)));
+        // Only "x++" and "x--" merge: the join has two incoming edges, and the if is not a statement
+        assertEquals(5, graph.nodeCount());
+        int ifNode = graph.edgeTarget(graph.firstEdge(graph.edgeTarget(graph.firstEdge(graph.root(0)))));
+        int thenNode = graph.edgeTarget(graph.firstEdge(ifNode));
+        int elseNode = graph.edgeTarget(graph.firstEdge(ifNode) + 1);
+        assertEquals("x = 1", graph.text(thenNode));
+        assertEquals("x++\nx--", graph.text(elseNode));
+        assertEquals(elseNode, graph.edgeTarget(graph.firstEdge(thenNode)));
+    }
+
+    @Test
+    public void testKeepsDeadEdgesExact() {
+        GraphNode method = new GraphNode(BlockType.METHOD_DECL, "foo()");
+        GraphNode conditional = new GraphNode(BlockType.IF, "if (false)");
+        GraphNode dead1 = new GraphNode(BlockType.STMT, "x = 1");
+        GraphNode dead2 = new GraphNode(BlockType.STMT, "x = 2");
+        GraphNode live = new GraphNode(BlockType.STMT, "x = 3");
+        GraphNode afterReturn = new GraphNode(BlockType.STMT, "x = 4");
+        method.addEdge(new GraphEdge(conditional, "", false));
+        conditional.addEdge(new GraphEdge(dead1, "then", true));
+        conditional.addEdge(new GraphEdge(live, "else", false));
+        dead1.addEdge(new GraphEdge(dead2, "", true));
+        // A dead edge leaving a live statement must stay visible
+        live.addEdge(new GraphEdge(afterReturn, "", true));
+
+        ControlFlowGraph graph = BasicBlocks.coalesce(ControlFlowGraph.of(Arrays.asList(method)));
+        assertEquals(5, graph.nodeCount());
+        int ifNode = graph.edgeTarget(graph.firstEdge(graph.root(0)));
+        int thenEdge = graph.firstEdge(ifNode);
+        assertTrue(graph.isEdgeDead(thenEdge));
+        assertEquals("x = 1\nx = 2", graph.text(graph.edgeTarget(thenEdge)));
+
+        int liveNode = graph.edgeTarget(thenEdge + 1);
+        assertFalse(graph.isEdgeDead(thenEdge + 1));
+        assertEquals("x = 3", graph.text(liveNode));
+        assertTrue(graph.isEdgeDead(graph.firstEdge(liveNode)));
+        assertEquals("x = 4", graph.text(graph.edgeTarget(graph.firstEdge(liveNode))));
+    }
+
+    @Test
+    public void testReturnsSameGraphWhenNothingMerges() {
+        GraphNode method = new GraphNode(BlockType.METHOD_DECL, "foo()");
+        method.addEdge(new GraphEdge(new GraphNode(BlockType.RETURN, "return;"), "", false));
+        ControlFlowGraph graph = ControlFlowGraph.of(Arrays.asList(method));
+        assertSame(graph, BasicBlocks.coalesce(graph));
+    }
+}
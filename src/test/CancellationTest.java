@@ -0,0 +1,63 @@
+import com.github.javaparser.JavaParser;
+import com.github.javaparser.ParserConfiguration;
+import com.github.javaparser.symbolsolver.JavaSymbolSolver;
+import com.github.javaparser.symbolsolver.resolution.typesolvers.ReflectionTypeSolver;
+import org.junit.Test;
+import visitor.AnalysisCancelledException;
+import visitor.Cancellation;
+import viz.ProjectGenerator;
+
+import static org.junit.Assert.*;
+
+public class CancellationTest {
+
+    private static final String INPUT = "public class Test {\n"
+            + "    void foo() { int x = 1; if (x > 0) { x = 2; } }\n"
+            + "    void boo() { for (int i = 0; i < 3; i++) { foo(); } }\n"
+            + "}";
+
+    private static JavaParser parser() {
+        JavaSymbolSolver symbolSolver = new JavaSymbolSolver(new ReflectionTypeSolver());
+        return new JavaParser(new ParserConfiguration().setSymbolResolver(symbolSolver));
+    }
+
+    @Test
+    public void testCancelledAnalysisStops() {
+        Cancellation cancellation = new Cancellation(60000);
+        cancellation.cancel();
+        try {
+            new ProjectGenerator(INPUT, parser(), cancellation);
+            fail("Analysis should have been cancelled");
+        } catch (AnalysisCancelledException e) {
+            assertFalse(e.isDeadlineExceeded());
+        }
+    }
+
+    @Test
+    public void testExpiredDeadlineStops() throws Exception {
+        Cancellation cancellation = new Cancellation(1);
+        Thread.sleep(5);
+        assertTrue(cancellation.isExpired());
+        try {
+            new ProjectGenerator(INPUT, parser(), cancellation);
+            fail("Analysis should have run past its deadline");
+        } catch (AnalysisCancelledException e) {
+            assertTrue(e.isDeadlineExceeded());
+        }
+    }
+
+    @Test
+    public void testUnexpiredDeadlineFinishes() {
+        ProjectGenerator generator = new ProjectGenerator(INPUT, parser(), new Cancellation(60000));
+        assertNotNull(generator.getGraph());
+        assertEquals(2, generator.getGraph().rootCount());
+    }
+
+    @Test
+    public void testNoneNeverCancels() {
+        Cancellation.NONE.cancel();
+        assertFalse(Cancellation.NONE.isCancelled());
+        assertFalse(Cancellation.NONE.isExpired());
+        Cancellation.NONE.check();
+    }
+}
@@ -0,0 +1,68 @@
+import com.github.javaparser.StaticJavaParser;
+import org.junit.Test;
+import utils.AbstractValue;
+import utils.ConstantEvaluator;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ConstantEvaluatorTest {
+
+    private AbstractValue evaluate(String expression, Map<String, AbstractValue> variables) {
+        return ConstantEvaluator.evaluate(StaticJavaParser.parseExpression(expression),
+                variable -> variables.getOrDefault(variable, AbstractValue.UNKNOWN));
+    }
+
+    private AbstractValue evaluate(String expression) {
+        return evaluate(expression, new HashMap<>());
+    }
+
+    @Test
+    public void testIntArithmetic() {
+        assertEquals(AbstractValue.ofInt(3), evaluate("7 / 2"));
+        assertEquals(AbstractValue.ofInt(-1), evaluate("-7 % 2"));
+        assertEquals(AbstractValue.ofInt(Integer.MIN_VALUE), evaluate("2147483647 + 1"));
+        assertEquals(AbstractValue.ofInt(6), evaluate("0x3 << 1"));
+        assertTrue(evaluate("1 / 0").isUnknown());
+    }
+
+    @Test
+    public void testBooleans() {
+        Map<String, AbstractValue> variables = new HashMap<>();
+        variables.put("x", AbstractValue.ofInt(4));
+        assertTrue(evaluate("x % 2 == 0 && !(x > 10)", variables).isTrue());
+        assertTrue(evaluate("x > 10 || false", variables).isFalse());
+        // Short circuit does not need to know y
+        assertTrue(evaluate("x < 0 && y > 0", variables).isFalse());
+        assertTrue(evaluate("x > 0 && y > 0", variables).isUnknown());
+    }
+
+    @Test
+    public void testStrings() {
+        Map<String, AbstractValue> variables = new HashMap<>();
+        variables.put("s", AbstractValue.ofString("wow"));
+        assertEquals(AbstractValue.ofInt(3), evaluate("s.length()", variables));
+        assertTrue(evaluate("s.equals(\"wow\")", variables).isTrue());
+        assertTrue(evaluate("(s + 1).equals(\"wow1\")", variables).isTrue());
+        assertTrue(evaluate("s == \"wow\"", variables).isUnknown());
+    }
+
+    @Test
+    public void testArrays() {
+        Map<String, AbstractValue> variables = new HashMap<>();
+        variables.put("arr", evaluate("new int[]{1, 2, 3}"));
+        assertEquals(AbstractValue.ofInt(3), evaluate("arr.length", variables));
+        assertEquals(AbstractValue.ofInt(2), evaluate("arr[1]", variables));
+        assertTrue(evaluate("arr[3]", variables).isUnknown());
+        assertTrue(evaluate("param.length > 2").isUnknown());
+    }
+
+    @Test
+    public void testSymjaFallback() {
+        assertTrue(ConstantEvaluator.benefitsFromSymja(StaticJavaParser.parseExpression("x - x == 0")));
+        assertTrue(ConstantEvaluator.benefitsFromSymja(StaticJavaParser.parseExpression("arr.length")));
+        assertFalse(ConstantEvaluator.benefitsFromSymja(StaticJavaParser.parseExpression("foo(x)")));
+    }
+}
@@ -0,0 +1,84 @@
+import graph.BlockType;
+import graph.ControlFlowGraph;
+import graph.GraphEdge;
+import graph.GraphNode;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class ControlFlowGraphTest {
+
+    @Test
+    public void testCopiesNodesAndEdges() {
+        GraphNode method = new GraphNode(BlockType.METHOD_DECL, "foo()");
+        GraphNode conditional = new GraphNode(BlockType.IF, "if (x > 1)");
+        GraphNode print = new GraphNode(BlockType.METHOD_CALL, "System.out.println(x)");
+        GraphNode ret = new GraphNode(BlockType.RETURN, "return x;");
+        method.addEdge(new GraphEdge(conditional, "", false));
+        conditional.addEdge(new GraphEdge(print, "then", true));
+        conditional.addEdge(new GraphEdge(ret, "else", false));
+        print.addEdge(new GraphEdge(ret, "", true));
+
+        ControlFlowGraph graph = ControlFlowGraph.of(Arrays.asList(method));
+        assertEquals(4, graph.nodeCount());
+        assertEquals(4, graph.edgeCount());
+        assertEquals(1, graph.rootCount());
+
+        int root = graph.root(0);
+        assertEquals(BlockType.METHOD_DECL, graph.blockType(root));
+        assertEquals("foo()", graph.text(root));
+        assertEquals(1, graph.endEdge(root) - graph.firstEdge(root));
+
+        int ifNode = graph.edgeTarget(graph.firstEdge(root));
+        assertEquals(BlockType.IF, graph.blockType(ifNode));
+        int thenEdge = graph.firstEdge(ifNode);
+        int elseEdge = thenEdge + 1;
+        assertEquals("then", graph.edgeLabel(thenEdge));
+        assertTrue(graph.isEdgeDead(thenEdge));
+        assertEquals("else", graph.edgeLabel(elseEdge));
+        assertFalse(graph.isEdgeDead(elseEdge));
+
+        // Both paths lead to the same return node
+        int printNode = graph.edgeTarget(thenEdge);
+        assertEquals(graph.edgeTarget(elseEdge), graph.edgeTarget(graph.firstEdge(printNode)));
+    }
+
+    @Test
+    public void testKeepsRootOrder() {
+        GraphNode foo = new GraphNode(BlockType.METHOD_DECL, "foo()");
+        GraphNode boo = new GraphNode(BlockType.METHOD_DECL, "boo()");
+        boo.addEdge(new GraphEdge(new GraphNode(BlockType.STMT, "int x = 0"), "", false));
+
+        ControlFlowGraph graph = ControlFlowGraph.of(Arrays.asList(foo, boo));
+        assertEquals(2, graph.rootCount());
+        assertEquals("foo()", graph.text(graph.root(0)));
+        assertEquals("boo()", graph.text(graph.root(1)));
+        assertEquals(graph.firstEdge(graph.root(0)), graph.endEdge(graph.root(0)));
+    }
+
+    @Test
+    public void testMethodCopiesOneRoot() {
+        GraphNode foo = new GraphNode(BlockType.METHOD_DECL, "foo()");
+        foo.addEdge(new GraphEdge(new GraphNode(BlockType.STMT, "int y = 1"), "", false));
+        GraphNode boo = new GraphNode(BlockType.METHOD_DECL, "boo()");
+        GraphNode conditional = new GraphNode(BlockType.IF, "if (x > 1)");
+        GraphNode ret = new GraphNode(BlockType.RETURN, "return x;");
+        boo.addEdge(new GraphEdge(conditional, "", false));
+        conditional.addEdge(new GraphEdge(ret, "then", true));
+        conditional.addEdge(new GraphEdge(ret, "else", false));
+
+        ControlFlowGraph method = ControlFlowGraph.of(Arrays.asList(foo, boo)).method(1);
+        assertEquals(1, method.rootCount());
+        assertEquals(3, method.nodeCount());
+        assertEquals(3, method.edgeCount());
+        assertEquals("boo()", method.text(method.root(0)));
+
+        int ifNode = method.edgeTarget(method.firstEdge(method.root(0)));
+        assertEquals("then", method.edgeLabel(method.firstEdge(ifNode)));
+        assertTrue(method.isEdgeDead(method.firstEdge(ifNode)));
+        assertFalse(method.isEdgeDead(method.firstEdge(ifNode) + 1));
+        assertEquals("return x;", method.text(method.edgeTarget(method.firstEdge(ifNode))));
+    }
+}
@@ -0,0 +1,64 @@
+import graph.BlockType;
+import graph.ControlFlowGraph;
+import graph.GraphEdge;
+import graph.GraphNode;
+import guru.nidi.graphviz.model.MutableGraph;
+import guru.nidi.graphviz.parse.Parser;
+import org.junit.Test;
+import viz.GraphGenerator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class GraphGeneratorTest {
+
+    @Test
+    public void testEscapesQuotes() {
+        GraphNode method = new GraphNode(BlockType.METHOD_DECL, "foo()");
+        method.addEdge(new GraphEdge(new GraphNode(BlockType.METHOD_CALL, "System.out.println(\"hi\")"), "", false));
+
+        String dot = new GraphGenerator().generateFullGraph(Arrays.asList(method));
+        assertTrue(dot.contains("node0 [label=\"System.out.println(\\\"hi\\\")\", shape=rectangles]"));
+        assertTrue(dot.contains("start1 -> node0 [label=\"\"]"));
+        assertTrue(dot.contains("node0 -> end1"));
+    }
+
+    @Test
+    public void testModelMatchesParsedDot() throws IOException {
+        GraphNode method = new GraphNode(BlockType.METHOD_DECL, "foo(String s)");
+        GraphNode conditional = new GraphNode(BlockType.IF, "if (s.equals(\"a\"))");
+        GraphNode print = new GraphNode(BlockType.METHOD_CALL, "System.out.println(s)");
+        GraphNode ret = new GraphNode(BlockType.RETURN, "return;");
+        method.addEdge(new GraphEdge(conditional, "", false));
+        conditional.addEdge(new GraphEdge(print, "then", true));
+        conditional.addEdge(new GraphEdge(ret, "else", false));
+        print.addEdge(new GraphEdge(ret, "", true));
+        GraphNode empty = new GraphNode(BlockType.METHOD_DECL, "boo()");
+
+        ControlFlowGraph graph = ControlFlowGraph.of(Arrays.asList(method, empty));
+        MutableGraph parsed = new Parser().read(new GraphGenerator().generateFullGraph(graph));
+        assertEquals(parsed.toString(), new GraphGenerator().buildFullGraph(graph).toString());
+    }
+
+    @Test
+    public void testDeepGraph() throws IOException {
+        // Deep enough to overflow the stack of a recursive walk
+        GraphNode method = new GraphNode(BlockType.METHOD_DECL, "foo()");
+        GraphNode last = method;
+        for (int i = 0; i < 50000; i++) {
+            GraphNode next = new GraphNode(BlockType.STMT, "x = " + i);
+            last.addEdge(new GraphEdge(next, "", false));
+            last = next;
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new GraphGenerator().writeFullGraph(ControlFlowGraph.of(Arrays.asList(method)), out);
+        String dot = out.toString(StandardCharsets.UTF_8.name());
+        assertTrue(dot.contains("node49998 -> node49999 [label=\"\"]"));
+        assertTrue(dot.endsWith("node49999 -> end1\n  }\n}\n"));
+    }
+}
@@ -0,0 +1,52 @@
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import graph.BlockType;
+import graph.ControlFlowGraph;
+import graph.GraphEdge;
+import graph.GraphNode;
+import org.junit.Test;
+import viz.GraphJsonWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class GraphJsonWriterTest {
+
+    @Test
+    public void testWritesNodesAndEdgesByMethod() throws Exception {
+        GraphNode foo = new GraphNode(BlockType.METHOD_DECL, "foo()");
+        GraphNode conditional = new GraphNode(BlockType.IF, "if (s.equals(\"a\"))");
+        GraphNode ret = new GraphNode(BlockType.RETURN, "return;");
+        foo.addEdge(new GraphEdge(conditional, "", false));
+        conditional.addEdge(new GraphEdge(ret, "then", true));
+        conditional.addEdge(new GraphEdge(ret, "else", false));
+        GraphNode boo = new GraphNode(BlockType.METHOD_DECL, "boo()");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new GraphJsonWriter().write(ControlFlowGraph.of(Arrays.asList(foo, boo)), out);
+        JsonNode json = new ObjectMapper().readTree(out.toByteArray());
+
+        JsonNode nodes = json.get("nodes");
+        assertEquals(4, nodes.size());
+        assertEquals(0, nodes.get(0).get("id").asInt());
+        assertEquals("METHOD_DECL", nodes.get(0).get("type").asText());
+        assertEquals("if (s.equals(\"a\"))", nodes.get(1).get("text").asText());
+
+        JsonNode methods = json.get("methods");
+        assertEquals(2, methods.size());
+        assertEquals("foo()", methods.get(0).get("name").asText());
+        JsonNode edges = methods.get(0).get("edges");
+        assertEquals(3, edges.size());
+        assertEquals(0, edges.get(0).get("source").asInt());
+        assertEquals(1, edges.get(0).get("target").asInt());
+        assertEquals("then", edges.get(1).get("label").asText());
+        assertTrue(edges.get(1).get("isDead").asBoolean());
+        assertFalse(edges.get(2).get("isDead").asBoolean());
+
+        assertEquals("boo()", methods.get(1).get("name").asText());
+        assertEquals(3, methods.get(1).get("root").asInt());
+        assertEquals(0, methods.get(1).get("edges").size());
+    }
+}
@@ -0,0 +1,61 @@
+import org.junit.Test;
+import utils.AbstractValue;
+import utils.VariableEnvironment;
+
+import static org.junit.Assert.*;
+
+public class VariableEnvironmentTest {
+
+    @Test
+    public void testSnapshotsAreUnchanged() {
+        VariableEnvironment before = VariableEnvironment.EMPTY.with("x", AbstractValue.ofInt(1));
+        VariableEnvironment after = before.with("x", AbstractValue.ofInt(2)).with("y", AbstractValue.TRUE);
+
+        assertEquals(AbstractValue.ofInt(1), before.get("x"));
+        assertNull(before.get("y"));
+        assertEquals(AbstractValue.ofInt(2), after.get("x"));
+        assertEquals(AbstractValue.TRUE, after.get("y"));
+        assertSame(after, after.with("y", AbstractValue.TRUE));
+    }
+
+    @Test
+    public void testJoin() {
+        VariableEnvironment before = VariableEnvironment.EMPTY;
+        for (int i = 0; i < 100; i++) {
+            before = before.with("v" + i, AbstractValue.ofInt(i));
+        }
+        VariableEnvironment thenBranch = before.with("v1", AbstractValue.ofInt(-1)).with("onlyThen", AbstractValue.TRUE);
+        VariableEnvironment elseBranch = before.with("v2", AbstractValue.ofInt(2)).with("v3", AbstractValue.ofInt(-3));
+
+        VariableEnvironment joined = thenBranch.join(elseBranch);
+        assertEquals(AbstractValue.UNKNOWN, joined.get("v1"));
+        assertEquals(AbstractValue.ofInt(2), joined.get("v2"));
+        assertEquals(AbstractValue.UNKNOWN, joined.get("v3"));
+        assertEquals(AbstractValue.ofInt(50), joined.get("v50"));
+        assertNull(joined.get("onlyThen"));
+        assertSame(before, before.join(before));
+    }
+
+    @Test
+    public void testHashCollisions() {
+        // "Aa" and "BB" have the same hash code
+        VariableEnvironment a = VariableEnvironment.EMPTY.with("Aa", AbstractValue.ofInt(1)).with("BB", AbstractValue.ofInt(2));
+        VariableEnvironment b = a.with("BB", AbstractValue.ofInt(3)).with("C", AbstractValue.FALSE);
+
+        assertEquals(AbstractValue.ofInt(1), b.get("Aa"));
+        assertEquals(AbstractValue.ofInt(3), b.get("BB"));
+        VariableEnvironment joined = a.join(b);
+        assertEquals(AbstractValue.ofInt(1), joined.get("Aa"));
+        assertEquals(AbstractValue.UNKNOWN, joined.get("BB"));
+        assertNull(joined.get("C"));
+    }
+
+    @Test
+    public void testWithAllUnknown() {
+        VariableEnvironment env = VariableEnvironment.EMPTY.with("x", AbstractValue.ofInt(1)).with("s", AbstractValue.ofString("s"));
+        VariableEnvironment unknown = env.withAllUnknown();
+        assertEquals(AbstractValue.UNKNOWN, unknown.get("x"));
+        assertEquals(AbstractValue.UNKNOWN, unknown.get("s"));
+        assertEquals(AbstractValue.UNKNOWN, unknown.apply("undefined"));
+    }
+}
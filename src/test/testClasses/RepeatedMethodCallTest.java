@@ -0,0 +1,17 @@
+package testClasses;
+
+public class RepeatedMethodCallTest {
+
+    public void foo() {
+        boo(8);
+        boo(8);
+        boo(0);
+    }
+
+    public void boo(int x) {
+        if (x > 1) {
+            System.out.println("X IS GREATER THAN 1!");
+        }
+        int y = x;
+    }
+}
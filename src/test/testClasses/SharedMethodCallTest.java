@@ -0,0 +1,23 @@
+package testClasses;
+
+public class SharedMethodCallTest {
+
+    public void foo() {
+        boo(8);
+    }
+
+    public void bar() {
+        boo(8);
+    }
+
+    public void baz() {
+        boo(8);
+    }
+
+    public void boo(int x) {
+        if (x > 1) {
+            foo();
+        }
+        int y = x;
+    }
+}
@@ -0,0 +1,27 @@
+package testClasses;
+
+public class SwitchExpressionTest {
+
+    public void MultiLabelSwitch() {
+        int i = 2;
+        switch(i) {
+            case 1, 2:
+                i = 1;
+                break;
+            case 3:
+                i = 3;
+                break;
+            default:
+                i = 0;
+        }
+        i = 10;
+    }
+
+    public void ArrowSwitch(int x) {
+        int i = switch(x) {
+            case 1, 2 -> 10;
+            default -> 0;
+        };
+        i = 20;
+    }
+}
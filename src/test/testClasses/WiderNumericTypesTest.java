@@ -0,0 +1,23 @@
+package testClasses;
+
+public class WiderNumericTypesTest {
+
+    public void longOverflow() {
+        long x = 2147483647;
+        if (x + 1 > 0) {
+            System.out.println("no overflow");
+        } else {
+            System.out.println("overflow");
+        }
+    }
+
+    public void doubleDivision() {
+        double d = 0;
+        d = 5;
+        if (d / 2 == 2) {
+            System.out.println("integer division");
+        } else {
+            System.out.println("floating point division");
+        }
+    }
+}
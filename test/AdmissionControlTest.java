@@ -0,0 +1,85 @@
+import org.junit.jupiter.api.Test;
+import visitor.AnalysisCancelledException;
+import visitor.Cancellation;
+import viz.AdmissionControl;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdmissionControlTest {
+
+    @Test
+    public void estimatesCostFromMethods() {
+        String twoMethods = "public class A {\n"
+                + "    void a() { if (x > 1) { b(); } }\n"
+                + "    int b(int x, String y) throws java.io.IOException { return x; }\n"
+                + "}";
+        assertEquals(3, AdmissionControl.estimateCost(twoMethods));
+        assertEquals(1, AdmissionControl.estimateCost("public class A {}"));
+    }
+
+    @Test
+    public void rejectsOnceQueueIsFull() throws Exception {
+        AdmissionControl admission = new AdmissionControl(1, 2, 100);
+        AdmissionControl.Ticket running = admission.admit(1);
+        running.start(Cancellation.NONE);
+        AdmissionControl.Ticket first = admission.admit(1);
+        AdmissionControl.Ticket second = admission.admit(1);
+
+        AdmissionControl.RejectedException e = assertThrows(AdmissionControl.RejectedException.class,
+                () -> admission.admit(1));
+        assertTrue(e.getRetryAfterSeconds() >= 1);
+        assertEquals(2, admission.getStats().get("queued"));
+        assertEquals(1, admission.getStats().get("running"));
+        assertEquals(1L, admission.getStats().get("rejected"));
+
+        // Leaving the queue without running makes room again
+        first.close();
+        second.close();
+        running.close();
+        assertEquals(0, admission.getStats().get("queued"));
+        assertEquals(0, admission.getStats().get("running"));
+        assertEquals(1L, admission.getStats().get("completed"));
+        admission.admit(1).close();
+    }
+
+    @Test
+    public void boundsQueuedCost() {
+        AdmissionControl admission = new AdmissionControl(1, 10, 5);
+        // Too expensive for the budget, but nothing else is waiting
+        AdmissionControl.Ticket expensive = admission.admit(8);
+        assertThrows(AdmissionControl.RejectedException.class, () -> admission.admit(1));
+        expensive.close();
+        admission.admit(3).close();
+    }
+
+    @Test
+    public void givesUpWaitingAtDeadline() throws Exception {
+        AdmissionControl admission = new AdmissionControl(1, 2, 100);
+        AdmissionControl.Ticket running = admission.admit(1);
+        running.start(Cancellation.NONE);
+
+        AdmissionControl.Ticket waiting = admission.admit(1);
+        AnalysisCancelledException e = assertThrows(AnalysisCancelledException.class,
+                () -> waiting.start(new Cancellation(50)));
+        assertTrue(e.isDeadlineExceeded());
+        waiting.close();
+        assertEquals(1L, admission.getStats().get("queueTimeouts"));
+        assertEquals(0, admission.getStats().get("queued"));
+        running.close();
+    }
+
+    @Test
+    public void queueDeadlineBoundsWaitOfAnalysisWithoutDeadline() throws Exception {
+        AdmissionControl admission = new AdmissionControl(1, 2, 100);
+        AdmissionControl.Ticket running = admission.admit(1);
+        running.start(Cancellation.NONE);
+
+        AdmissionControl.Ticket waiting = admission.admit(1);
+        AnalysisCancelledException e = assertThrows(AnalysisCancelledException.class,
+                () -> waiting.start(new Cancellation(Long.MAX_VALUE), new Cancellation(50)));
+        assertTrue(e.isDeadlineExceeded());
+        waiting.close();
+        assertEquals(1L, admission.getStats().get("queueTimeouts"));
+        running.close();
+    }
+}
@@ -0,0 +1,27 @@
+import graph.ControlFlowGraph;
+import org.junit.jupiter.api.Test;
+import viz.AnalyzedGraphCache;
+
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AnalyzedGraphCacheTest {
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        AnalyzedGraphCache cache = new AnalyzedGraphCache(2);
+        ControlFlowGraph a = ControlFlowGraph.of(Collections.emptyList());
+        cache.put("a", a);
+        cache.put("b", ControlFlowGraph.of(Collections.emptyList()));
+        assertSame(a, cache.get("a")); // "b" is now the least recently used
+        cache.put("c", ControlFlowGraph.of(Collections.emptyList()));
+
+        assertNull(cache.get("b"));
+        assertSame(a, cache.get("a"));
+        assertNotNull(cache.get("c"));
+        assertEquals(2L, cache.getStats().get("entries"));
+        assertEquals(3L, cache.getStats().get("hits"));
+        assertEquals(1L, cache.getStats().get("misses"));
+    }
+}
@@ -0,0 +1,98 @@
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import graph.ControlFlowGraph;
+import org.junit.jupiter.api.Test;
+import viz.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchAnalysisTest {
+
+    private static final String VALID = "public class A { void foo() { int x = 1; if (x > 1) { x = 2; } } }";
+
+    private static BatchAnalysis batchAnalysis() {
+        GraphRenderer renderer = new GraphRenderer() {
+            @Override
+            public byte[] renderSvg(ControlFlowGraph graph) {
+                return ("<svg nodes=\"" + graph.nodeCount() + "\"/>").getBytes(StandardCharsets.UTF_8);
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public Map<String, Object> getStats() {
+                return Collections.emptyMap();
+            }
+        };
+        AnalysisService analysisService = new AnalysisService(renderer, new AdmissionControl(2, 32, 2000),
+                new PipelineMetrics());
+        return new BatchAnalysis(analysisService, new GraphCache(16, 1 << 20), 2, 20000);
+    }
+
+    private static Map<Integer, JsonNode> run(List<String> sources, BatchAnalysis.Format format) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        batchAnalysis().run(sources, format, false, out);
+        Map<Integer, JsonNode> lines = new HashMap<>();
+        ObjectMapper mapper = new ObjectMapper();
+        for (String line : out.toString(StandardCharsets.UTF_8).split("\n")) {
+            JsonNode json = mapper.readTree(line);
+            assertNull(lines.put(json.get("index").asInt(), json));
+        }
+        return lines;
+    }
+
+    @Test
+    public void reportsErrorsInline() throws Exception {
+        Map<Integer, JsonNode> lines = run(Arrays.asList(VALID, "this is not java", VALID, VALID),
+                BatchAnalysis.Format.SVG);
+        assertEquals(4, lines.size());
+        assertEquals(500, lines.get(1).get("status").asInt());
+        assertEquals("Error in generating graph", lines.get(1).get("error").asText());
+        for (int i : new int[]{0, 2, 3}) {
+            assertEquals(200, lines.get(i).get("status").asInt());
+            assertEquals("<svg nodes=\"4\"/>", lines.get(i).get("svg").asText());
+        }
+    }
+
+    @Test
+    public void writesDotAndJson() throws Exception {
+        JsonNode dot = run(Collections.singletonList(VALID), BatchAnalysis.Format.DOT).get(0);
+        assertTrue(dot.get("dot").asText().startsWith("digraph {"));
+
+        JsonNode json = run(Collections.singletonList(VALID), BatchAnalysis.Format.JSON).get(0);
+        JsonNode graph = json.get("graph");
+        assertEquals(4, graph.get("nodes").size());
+        assertEquals("foo()", graph.get("methods").get(0).get("name").asText());
+    }
+
+    @Test
+    public void stopsWhenTheClientGoesAway() {
+        OutputStream closed = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("Broken pipe");
+            }
+        };
+        List<String> sources = Collections.nCopies(50, VALID);
+        IOException e = assertTimeoutPreemptively(Duration.ofSeconds(30), () -> assertThrows(IOException.class,
+                () -> batchAnalysis().run(sources, BatchAnalysis.Format.SVG, false, closed)));
+        assertEquals("Broken pipe", e.getMessage());
+    }
+
+    @Test
+    public void parsesFormats() {
+        assertEquals(BatchAnalysis.Format.SVG, BatchAnalysis.Format.parse(null));
+        assertEquals(BatchAnalysis.Format.JSON, BatchAnalysis.Format.parse("json"));
+        assertThrows(IllegalArgumentException.class, () -> BatchAnalysis.Format.parse("png"));
+    }
+}
@@ -0,0 +1,45 @@
+import org.junit.jupiter.api.Test;
+import viz.GraphCache;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GraphCacheTest {
+
+    @Test
+    public void normalizedInputsShareKey() {
+        String unix = "public class A {\n    void a() {}\n}\n";
+        String windows = "public class A {  \r\n    void a() {}\r\n}";
+        assertEquals(GraphCache.keyFor(unix), GraphCache.keyFor(windows));
+        assertNotEquals(GraphCache.keyFor(unix), GraphCache.keyFor("public class B {}"));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        GraphCache cache = new GraphCache(2, 1024);
+        cache.put("a", new byte[10]);
+        cache.put("b", new byte[10]);
+        assertNotNull(cache.get("a")); // "b" is now the least recently used
+        cache.put("c", new byte[10]);
+
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("a"));
+        assertNotNull(cache.get("c"));
+        assertEquals(3L, cache.getStats().get("hits"));
+        assertEquals(1L, cache.getStats().get("misses"));
+    }
+
+    @Test
+    public void evictsBySize() {
+        GraphCache cache = new GraphCache(10, 25);
+        cache.put("a", new byte[10]);
+        cache.put("b", new byte[10]);
+        cache.put("c", new byte[10]);
+
+        assertNull(cache.get("a"));
+        assertEquals(20L, cache.getStats().get("bytes"));
+
+        cache.put("huge", new byte[100]);
+        assertNull(cache.get("huge"));
+        assertNotNull(cache.get("c"));
+    }
+}
@@ -0,0 +1,200 @@
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import viz.GraphApplication;
+import viz.LatencyHistogram;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Load test of POST /graph against the whole application on a random port. Only runs when asked for:
+ * <pre>
+ * -Dload.test=true -Dload.concurrency=16 -Dload.duration=30 -Dload.inputs=SwitchTest:3,ForLoopTest
+ * </pre>
+ * Every client thread sends one request after the other for the given number of seconds, after a warm-up whose
+ * requests are not counted. Inputs are programs from src/test/testClasses, each with an optional weight. Unless
+ * load.unique=false, every request gets a comment of its own, so that it runs the pipeline instead of hitting the
+ * cache or joining an identical request in flight. Throughput, latency percentiles, error rate and the server's own
+ * stage metrics are printed and written as JSON to load.output; load.maxErrorRate turns the error rate into a check.
+ */
+@SpringBootTest(classes = GraphApplication.class, webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@EnabledIfSystemProperty(named = "load.test", matches = "true")
+class GraphLoadTest {
+
+    private static final Path TEST_CLASSES = Paths.get("src", "test", "testClasses");
+
+    // Statuses reported for requests that got no response in time, or none at all
+    private static final int TIMED_OUT = -1;
+    private static final int IO_ERROR = 0;
+
+    @LocalServerPort
+    private int port;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+    @Test
+    public void graphEndpointUnderLoad() throws Exception {
+        int concurrency = Integer.getInteger("load.concurrency", Runtime.getRuntime().availableProcessors());
+        long durationSeconds = Long.getLong("load.duration", 30);
+        long warmupSeconds = Long.getLong("load.warmup", 5);
+        boolean unique = Boolean.parseBoolean(System.getProperty("load.unique", "true"));
+        Duration requestTimeout = Duration.ofSeconds(Long.getLong("load.request-timeout", 60));
+        Path output = Paths.get(System.getProperty("load.output", "target/load-result.json"));
+        List<String> inputs = loadInputs(System.getProperty("load.inputs", ""));
+
+        URI graph = URI.create("http://localhost:" + port + "/graph");
+        LatencyHistogram latencies = new LatencyHistogram();
+        LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+        Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+        AtomicLong sequence = new AtomicLong();
+
+        long startNanos = System.nanoTime();
+        long measureFromNanos = startNanos + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        long endNanos = measureFromNanos + TimeUnit.SECONDS.toNanos(durationSeconds);
+        ExecutorService clients = Executors.newFixedThreadPool(concurrency);
+        for (int i = 0; i < concurrency; i++) {
+            clients.execute(() -> {
+                Random random = new Random();
+                while (System.nanoTime() < endNanos) {
+                    long id = sequence.incrementAndGet();
+                    String code = inputs.get(random.nextInt(inputs.size()));
+                    if (unique) {
+                        code += "\n// load test request " + id + "\n";
+                    }
+                    long sentNanos = System.nanoTime();
+                    int status = send(graph, code, requestTimeout);
+                    long doneNanos = System.nanoTime();
+                    if (sentNanos >= measureFromNanos && doneNanos <= endNanos) {
+                        latencies.record(doneNanos - sentNanos);
+                        maxNanos.accumulate(doneNanos - sentNanos);
+                        statuses.computeIfAbsent(status, s -> new LongAdder()).increment();
+                    }
+                }
+            });
+        }
+        clients.shutdown();
+        assertTrue(clients.awaitTermination(durationSeconds + warmupSeconds + requestTimeout.toSeconds() + 10,
+                TimeUnit.SECONDS));
+
+        long requests = 0;
+        long errors = 0;
+        Map<String, Long> statusCounts = new TreeMap<>();
+        for (Map.Entry<Integer, LongAdder> entry : statuses.entrySet()) {
+            long count = entry.getValue().sum();
+            requests += count;
+            if (entry.getKey() != 200) {
+                errors += count;
+            }
+            String status = switch (entry.getKey()) {
+                case TIMED_OUT -> "timeout";
+                case IO_ERROR -> "ioError";
+                default -> entry.getKey().toString();
+            };
+            statusCounts.put(status, count);
+        }
+        double errorRate = requests == 0 ? 0 : (double) errors / requests;
+
+        Map<String, Object> config = new LinkedHashMap<>();
+        config.put("concurrency", concurrency);
+        config.put("durationSeconds", durationSeconds);
+        config.put("warmupSeconds", warmupSeconds);
+        config.put("unique", unique);
+        config.put("inputs", System.getProperty("load.inputs", "all"));
+        Map<String, Object> latency = new LinkedHashMap<>();
+        latency.put("p50", latencies.percentileMillis(50));
+        latency.put("p99", latencies.percentileMillis(99));
+        latency.put("p999", latencies.percentileMillis(99.9));
+        latency.put("max", maxNanos.get() / 1e6);
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("config", config);
+        result.put("requests", requests);
+        result.put("throughputPerSecond", (double) requests / durationSeconds);
+        result.put("errorRate", errorRate);
+        result.put("statuses", statusCounts);
+        result.put("latencyMillis", latency);
+        result.put("serverStages", get("/graph/metrics"));
+        result.put("admission", get("/graph/admission"));
+
+        if (output.getParent() != null) {
+            Files.createDirectories(output.getParent());
+        }
+        mapper.writer().with(SerializationFeature.INDENT_OUTPUT).writeValue(output.toFile(), result);
+        System.out.println("LOAD " + mapper.writeValueAsString(result));
+
+        assertTrue(requests > 0, "No request finished within the measured period");
+        String maxErrorRate = System.getProperty("load.maxErrorRate");
+        if (maxErrorRate != null) {
+            assertTrue(errorRate <= Double.parseDouble(maxErrorRate),
+                    "Error rate " + errorRate + " is above " + maxErrorRate + ": " + statusCounts);
+        }
+    }
+
+    /**
+     * @param spec - comma-separated names of programs in src/test/testClasses, each optionally followed by :weight;
+     *               empty for every program there with a weight of one.
+     */
+    private static List<String> loadInputs(String spec) throws IOException {
+        List<String> inputs = new ArrayList<>();
+        if (spec.isBlank()) {
+            try (var files = Files.list(TEST_CLASSES)) {
+                for (Path file : files.filter(f -> f.toString().endsWith(".java")).sorted().toList()) {
+                    inputs.add(Files.readString(file));
+                }
+            }
+            return inputs;
+        }
+        for (String entry : spec.split(",")) {
+            String[] nameAndWeight = entry.trim().split(":");
+            String code = Files.readString(TEST_CLASSES.resolve(nameAndWeight[0] + ".java"));
+            int weight = nameAndWeight.length > 1 ? Integer.parseInt(nameAndWeight[1]) : 1;
+            inputs.addAll(Collections.nCopies(weight, code));
+        }
+        return inputs;
+    }
+
+    private int send(URI graph, String code, Duration timeout) {
+        try {
+            HttpRequest request = HttpRequest.newBuilder(graph)
+                    .timeout(timeout)
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(mapper.writeValueAsString(Map.of("inputCode", code))))
+                    .build();
+            return client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+        } catch (HttpTimeoutException e) {
+            return TIMED_OUT;
+        } catch (IOException e) {
+            return IO_ERROR;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return IO_ERROR;
+        }
+    }
+
+    private Object get(String path) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + path)).build();
+        return mapper.readValue(client.send(request, HttpResponse.BodyHandlers.ofString()).body(), Object.class);
+    }
+}
@@ -0,0 +1,119 @@
+import graph.ControlFlowGraph;
+import org.junit.jupiter.api.Test;
+import viz.GraphRenderer;
+import viz.GraphvizEnginePool;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GraphvizEnginePoolTest {
+
+    private static final ControlFlowGraph EMPTY = ControlFlowGraph.of(Collections.emptyList());
+
+    @Test
+    public void warmsUpEveryEngineThread() throws Exception {
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+        GraphvizEnginePool pool = new GraphvizEnginePool(3, 1000) {
+            @Override
+            protected byte[] render(ControlFlowGraph graph) {
+                threads.add(Thread.currentThread().getName());
+                return new byte[]{1};
+            }
+        };
+        for (int i = 0; i < 100 && !pool.isReady(); i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(pool.isReady());
+        assertEquals(3, threads.size());
+
+        assertArrayEquals(new byte[]{1}, pool.renderSvg(EMPTY));
+        assertEquals(1L, pool.getStats().get("renders"));
+        pool.shutdown();
+    }
+
+    @Test
+    public void checkoutTimesOutWhenAllEnginesAreBusy() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        GraphvizEnginePool pool = new GraphvizEnginePool(1, 50) {
+            @Override
+            protected byte[] render(ControlFlowGraph graph) throws IOException {
+                if (graph == EMPTY) {
+                    try {
+                        release.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                }
+                return new byte[0];
+            }
+        };
+        Thread busy = new Thread(() -> {
+            try {
+                pool.renderSvg(EMPTY);
+            } catch (IOException ignored) {
+            }
+        });
+        busy.start();
+        while (pool.getStats().get("available").equals(1)) {
+            Thread.sleep(5);
+        }
+
+        assertThrows(GraphRenderer.RendererBusyException.class, () -> pool.renderSvg(EMPTY));
+        assertEquals(1L, pool.getStats().get("checkoutTimeouts"));
+        release.countDown();
+        busy.join();
+        pool.shutdown();
+    }
+
+    @Test
+    public void interruptedCallerCancelsItsRenderAndKeepsTheEngineUntilItStops() throws Exception {
+        CountDownLatch rendering = new CountDownLatch(1);
+        CountDownLatch cancelled = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+        GraphvizEnginePool pool = new GraphvizEnginePool(1, 50) {
+            @Override
+            protected byte[] render(ControlFlowGraph graph) {
+                if (graph == EMPTY) {
+                    rendering.countDown();
+                    try {
+                        Thread.sleep(5000);
+                    } catch (InterruptedException e) {
+                        cancelled.countDown();
+                    }
+                    // An engine that does not stop at once keeps its permit until it does
+                    try {
+                        finish.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException ignored) {
+                    }
+                }
+                return new byte[0];
+            }
+        };
+        Thread caller = new Thread(() -> {
+            try {
+                pool.renderSvg(EMPTY);
+            } catch (IOException ignored) {
+            }
+        });
+        caller.start();
+        assertTrue(rendering.await(5, TimeUnit.SECONDS));
+        caller.interrupt();
+        caller.join();
+
+        assertTrue(cancelled.await(5, TimeUnit.SECONDS));
+        assertEquals(0, pool.getStats().get("available"));
+        assertThrows(GraphRenderer.RendererBusyException.class, () -> pool.renderSvg(EMPTY));
+        finish.countDown();
+        for (int i = 0; i < 100 && pool.getStats().get("available").equals(0); i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, pool.getStats().get("available"));
+        pool.shutdown();
+    }
+}
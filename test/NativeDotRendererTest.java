@@ -0,0 +1,97 @@
+import graph.BlockType;
+import graph.ControlFlowGraph;
+import graph.GraphEdge;
+import graph.GraphNode;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+import viz.NativeDotRenderer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs the renderer against shell scripts standing in for dot.
+ */
+@EnabledOnOs({OS.LINUX, OS.MAC})
+class NativeDotRendererTest {
+
+    private Path script;
+    private NativeDotRenderer renderer;
+
+    private static ControlFlowGraph sampleGraph() {
+        GraphNode method = new GraphNode(BlockType.METHOD_DECL, "foo()");
+        method.addEdge(new GraphEdge(new GraphNode(BlockType.STMT, "x = 1"), "", false));
+        return ControlFlowGraph.of(Arrays.asList(method));
+    }
+
+    private NativeDotRenderer fakeDot(String body, long renderTimeoutMillis) throws IOException {
+        script = Files.createTempFile("fake-dot", ".sh");
+        Files.write(script, ("#!/bin/sh\n" + body + "\n").getBytes(StandardCharsets.UTF_8));
+        assertTrue(script.toFile().setExecutable(true));
+        renderer = new NativeDotRenderer(script.toString(), 2, 1000, renderTimeoutMillis);
+        return renderer;
+    }
+
+    @AfterEach
+    public void cleanUp() throws IOException {
+        if (renderer != null) {
+            renderer.shutdown();
+            Files.deleteIfExists(script);
+        }
+    }
+
+    @Test
+    public void rendersThroughTheProcess() throws Exception {
+        // Echoes the DOT back, so the output shows what the process was given
+        NativeDotRenderer renderer = fakeDot("cat", 10000);
+        String output = new String(renderer.renderSvg(sampleGraph()), StandardCharsets.UTF_8);
+        assertTrue(output.startsWith("digraph {"));
+        assertTrue(output.contains("label=\"x = 1\""));
+        assertEquals(1L, renderer.getStats().get("renders"));
+        assertEquals(2, renderer.getStats().get("available"));
+    }
+
+    @Test
+    public void reportsFailingProcess() throws Exception {
+        NativeDotRenderer renderer = fakeDot("cat > /dev/null; exit 3", 10000);
+        IOException e = assertThrows(IOException.class, () -> renderer.renderSvg(sampleGraph()));
+        assertEquals("dot exited with code 3", e.getMessage());
+        assertEquals(0L, renderer.getStats().get("renders"));
+    }
+
+    @Test
+    public void killsProcessAfterTimeout() throws Exception {
+        NativeDotRenderer renderer = fakeDot("exec sleep 10", 200);
+        long start = System.nanoTime();
+        IOException e = assertThrows(IOException.class, () -> renderer.renderSvg(sampleGraph()));
+        assertEquals("dot did not finish within 200 ms", e.getMessage());
+        assertTrue(System.nanoTime() - start < 5_000_000_000L);
+        assertEquals(1L, renderer.getStats().get("renderTimeouts"));
+        assertEquals(2, renderer.getStats().get("available"));
+    }
+
+    @Test
+    public void versionGivesUpOnHangingProcess() throws Exception {
+        NativeDotRenderer renderer = fakeDot("exec sleep 10", 200);
+        long start = System.nanoTime();
+        IOException e = assertThrows(IOException.class, renderer::version);
+        assertTrue(e.getMessage().endsWith("-V did not finish within 200 ms"));
+        assertTrue(System.nanoTime() - start < 5_000_000_000L);
+    }
+
+    @Test
+    public void findsExecutablesOnPath() {
+        String shell = NativeDotRenderer.findOnPath("sh");
+        assertNotNull(shell);
+        assertTrue(new File(shell).canExecute());
+        assertNull(NativeDotRenderer.findOnPath("no-such-binary-anywhere"));
+    }
+}
@@ -0,0 +1,53 @@
+import org.junit.jupiter.api.Test;
+import utils.StageTimings;
+import viz.LatencyHistogram;
+import viz.PipelineMetrics;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PipelineMetricsTest {
+
+    @Test
+    public void percentilesAreWithinOneBucket() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.percentileNanos(50));
+        for (long nanos = 1; nanos <= 1000; nanos++) {
+            histogram.record(nanos * 1000);
+        }
+        assertEquals(1000, histogram.count());
+        assertEquals(500_000, histogram.percentileNanos(50), 500_000 / 8.0);
+        assertEquals(990_000, histogram.percentileNanos(99), 990_000 / 8.0);
+        assertTrue(histogram.percentileNanos(95) <= histogram.percentileNanos(99));
+    }
+
+    @Test
+    public void recordsOnlyStagesThatRan() {
+        StageTimings timings = new StageTimings();
+        timings.end(StageTimings.Stage.PARSE, System.nanoTime() - 2_000_000);
+        timings.setInput(4096, 3);
+
+        PipelineMetrics metrics = new PipelineMetrics();
+        metrics.record(timings, StageTimings.Stage.PARSE, StageTimings.Stage.RESOLVE);
+        List<Map<String, Object>> stats = metrics.getStats();
+        assertEquals(1, stats.size());
+        assertEquals("parse", stats.get(0).get("stage"));
+        assertEquals("1-10KiB", stats.get(0).get("inputSize"));
+        assertEquals("2-5", stats.get(0).get("methods"));
+        assertEquals(1L, stats.get(0).get("count"));
+        assertTrue((double) stats.get(0).get("p50Millis") >= 1.5);
+    }
+
+    @Test
+    public void serverTimingListsStagesThatRan() {
+        StageTimings timings = new StageTimings();
+        assertEquals("total;dur=3.0", timings.toServerTiming(3_000_000));
+
+        timings.end(StageTimings.Stage.VISIT, System.nanoTime());
+        String header = timings.toServerTiming(3_000_000);
+        assertTrue(header.startsWith("visit;dur="), header);
+        assertTrue(header.endsWith(", total;dur=3.0"), header);
+    }
+}
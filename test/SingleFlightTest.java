@@ -0,0 +1,83 @@
+import org.junit.jupiter.api.Test;
+import viz.SingleFlight;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SingleFlightTest {
+
+    @Test
+    public void sharesRunningComputation() throws Exception {
+        SingleFlight<String> singleFlight = new SingleFlight<>();
+        AtomicInteger starts = new AtomicInteger();
+        CompletableFuture<String> computation = new CompletableFuture<>();
+
+        CompletableFuture<String> first = singleFlight.join("a", () -> {
+            starts.incrementAndGet();
+            return computation;
+        });
+        CompletableFuture<String> second = singleFlight.join("a", () -> {
+            starts.incrementAndGet();
+            return new CompletableFuture<>();
+        });
+        assertEquals(1, starts.get());
+        assertEquals(1L, singleFlight.getStats().get("coalesced"));
+
+        computation.complete("svg");
+        assertEquals("svg", first.get());
+        assertEquals("svg", second.get());
+        assertEquals(0L, singleFlight.getStats().get("inFlight"));
+
+        // Once finished, the same key starts a new computation
+        singleFlight.join("a", () -> {
+            starts.incrementAndGet();
+            return CompletableFuture.completedFuture("again");
+        });
+        assertEquals(2, starts.get());
+    }
+
+    @Test
+    public void sharesFailures() {
+        SingleFlight<String> singleFlight = new SingleFlight<>();
+        CompletableFuture<String> computation = new CompletableFuture<>();
+        CompletableFuture<String> first = singleFlight.join("a", () -> computation);
+        CompletableFuture<String> second = singleFlight.join("a", CompletableFuture::new);
+
+        computation.completeExceptionally(new IllegalStateException("broken"));
+        ExecutionException e = assertThrows(ExecutionException.class, first::get);
+        assertInstanceOf(IllegalStateException.class, e.getCause());
+        assertThrows(ExecutionException.class, second::get);
+    }
+
+    @Test
+    public void cancelsOnlyOnceEveryCallerLeft() {
+        SingleFlight<String> singleFlight = new SingleFlight<>();
+        CompletableFuture<String> computation = new CompletableFuture<>();
+        CompletableFuture<String> first = singleFlight.join("a", () -> computation);
+        CompletableFuture<String> second = singleFlight.join("a", CompletableFuture::new);
+
+        first.cancel(true);
+        assertFalse(computation.isCancelled());
+        second.cancel(true);
+        assertTrue(computation.isCancelled());
+        assertEquals(0L, singleFlight.getStats().get("inFlight"));
+
+        // An abandoned computation is never joined again
+        CompletableFuture<String> fresh = new CompletableFuture<>();
+        singleFlight.join("a", () -> fresh);
+        assertEquals(2L, singleFlight.getStats().get("started"));
+    }
+
+    @Test
+    public void keepsKeysApart() throws Exception {
+        SingleFlight<String> singleFlight = new SingleFlight<>();
+        CompletableFuture<String> a = singleFlight.join("a", () -> CompletableFuture.completedFuture("a"));
+        CompletableFuture<String> b = singleFlight.join("b", () -> CompletableFuture.completedFuture("b"));
+        assertEquals("a", a.get());
+        assertEquals("b", b.get());
+        assertEquals(0L, singleFlight.getStats().get("coalesced"));
+    }
+}